@@ -17,19 +17,26 @@
 package com.example.android.cloudnotes.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
+
 public class NotesProvider extends ContentProvider {
 
     public static final String CONTENT_AUTHORITY = "com.example.android.cloudnotes";
@@ -42,13 +49,116 @@ public class NotesProvider extends ContentProvider {
 
     private static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.cloudnotes.note";
 
+    /**
+     * Notes whose local edits clashed with a newer version in drive. The sync
+     * records one row per note and leaves both versions alone until the
+     * conflict is resolved.
+     */
+    public static final Uri CONFLICTS_URI = BASE_CONTENT_URI.buildUpon().appendPath("conflicts")
+            .build();
+
+    public static final String CONFLICTS_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.cloudnotes.conflicts";
+
+    /**
+     * Measurements of recent syncs, one row per sync, most recent last. Only
+     * the last {@link #SYNC_STATS_KEPT} are kept.
+     */
+    public static final Uri SYNC_STATS_URI = BASE_CONTENT_URI.buildUpon()
+            .appendPath("sync_stats").build();
+
+    public static final String SYNC_STATS_CONTENT_TYPE =
+            "vnd.android.cursor.dir/vnd.cloudnotes.sync_stats";
+
+    public static final int SYNC_STATS_KEPT = 100;
+
+    /**
+     * Uploads of new notes that were started but whose result may not have
+     * been saved, one row per note. The sync writes a row before creating a
+     * note in drive and removes it along with saving the new drive id.
+     */
+    public static final Uri SYNC_JOURNAL_URI = BASE_CONTENT_URI.buildUpon()
+            .appendPath("sync_journal").build();
+
+    public static final String SYNC_JOURNAL_CONTENT_TYPE =
+            "vnd.android.cursor.dir/vnd.cloudnotes.sync_journal";
+
+    /**
+     * Local deletions and renames of notes in drive still to be made there,
+     * oldest first. Deleting or renaming a note writes its entry in the same
+     * transaction. There is at most one entry per drive file, the latest: a
+     * rename replaces an earlier one, and a delete any rename before it.
+     */
+    public static final Uri OUTBOX_URI = BASE_CONTENT_URI.buildUpon().appendPath("outbox")
+            .build();
+
+    public static final String OUTBOX_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.cloudnotes.outbox";
+
+    // outbox operations
+    public static final String OP_DELETE = "delete";
+    public static final String OP_RENAME = "rename";
+
+    /**
+     * Full-text search of note titles and bodies, see {@link #searchUri(String)}.
+     * Results have the {@link #SEARCH_PROJECTION} columns, notes with more of
+     * the words in their title first and then the most recently modified.
+     * Only the {@link #SEARCH_CANDIDATES} most recently created matches are
+     * ranked and given snippets, so a word most notes have costs about as
+     * much as reading that many matches.
+     */
+    public static final Uri SEARCH_URI = BASE_CONTENT_URI.buildUpon().appendPath("search")
+            .build();
+
+    public static final String SEARCH_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.cloudnotes.search";
+
+    /**
+     * Query parameter limiting the number of search results, by default
+     * {@link #SEARCH_DEFAULT_LIMIT}.
+     */
+    public static final String SEARCH_LIMIT = "limit";
+
+    public static final int SEARCH_DEFAULT_LIMIT = 50;
+
+    /**
+     * The number of matching notes a search ranks, at most.
+     */
+    public static final int SEARCH_CANDIDATES = 500;
+
+    // markers around the matched words in a search snippet
+    public static final String SNIPPET_START = "<b>";
+    public static final String SNIPPET_END = "</b>";
+
+    /**
+     * Query parameter marking a write as coming from the drive sync. Writes
+     * without it are local edits, which flag the note as dirty and stamp its
+     * modification time.
+     */
+    public static final String CALLER_IS_SYNC = "caller_is_sync";
+
     // The underlying database
     private SQLiteDatabase notesDB;
 
+    // Number of rows bulkInsert writes between chances for readers to run
+    private static final int BULK_INSERT_YIELD_INTERVAL = 100;
+
+    // Set while a batch runs on the current thread, so the individual
+    // operations leave change notification to the batch
+    private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<Boolean>();
+
+    // Compiled statements for the most frequent single row updates. Each is
+    // reused across calls, so access is synchronized on the statement.
+    private SQLiteStatement updateNoteStatement;
+    private SQLiteStatement setDriveIdStatement;
+    private SQLiteStatement touchStatement;
+
     // Create the constants used to differentiate between the different URI
     // requests
     private static final int ALL_NOTES = 1;
     private static final int NOTE_ID = 2;
+    private static final int CONFLICTS = 3;
+    private static final int SYNC_STATS = 4;
+    private static final int SYNC_JOURNAL = 5;
+    private static final int OUTBOX = 6;
+    private static final int SEARCH = 7;
 
     private static final UriMatcher uriMatcher;
 
@@ -59,13 +169,36 @@ public class NotesProvider extends ContentProvider {
         uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         uriMatcher.addURI(CONTENT_AUTHORITY, "notes", ALL_NOTES);
         uriMatcher.addURI(CONTENT_AUTHORITY, "notes/#", NOTE_ID);
+        uriMatcher.addURI(CONTENT_AUTHORITY, "conflicts", CONFLICTS);
+        uriMatcher.addURI(CONTENT_AUTHORITY, "sync_stats", SYNC_STATS);
+        uriMatcher.addURI(CONTENT_AUTHORITY, "sync_journal", SYNC_JOURNAL);
+        uriMatcher.addURI(CONTENT_AUTHORITY, "outbox", OUTBOX);
+        uriMatcher.addURI(CONTENT_AUTHORITY, "search", SEARCH);
+        uriMatcher.addURI(CONTENT_AUTHORITY, "search/*", SEARCH);
     }
 
     @Override
     public boolean onCreate() {
         NotesDatabaseHelper helper = new NotesDatabaseHelper(getContext());
         notesDB = helper.getWritableDatabase();
-        return notesDB != null;
+        if (notesDB == null) {
+            return false;
+        }
+
+        // let the list and widget read while sync writes
+        notesDB.enableWriteAheadLogging();
+
+        // the body is only flagged if it differs from the stored one, so a
+        // rename can be synced without sending the body
+        updateNoteStatement = notesDB.compileStatement("UPDATE " + DATABASE_TABLE + " SET "
+                + KEY_TITLE + "=?, " + KEY_BODY_DIRTY + "=(" + KEY_BODY_DIRTY + " OR " + KEY_BODY
+                + " IS NOT ?), " + KEY_BODY + "=?, " + KEY_LAST_MODIFIED + "=?, " + KEY_DIRTY
+                + "=1 WHERE " + KEY_ID + "=?");
+        setDriveIdStatement = notesDB.compileStatement("UPDATE " + DATABASE_TABLE + " SET "
+                + KEY_DRIVE_ID + "=? WHERE " + KEY_ID + "=?");
+        touchStatement = notesDB.compileStatement("UPDATE " + DATABASE_TABLE + " SET "
+                + KEY_LAST_MODIFIED + "=? WHERE " + KEY_ID + "=?");
+        return true;
     }
 
     @Override
@@ -77,8 +210,23 @@ public class NotesProvider extends ContentProvider {
         // If this is a row query, limit the result set to the passed in row.
         switch (uriMatcher.match(uri)) {
             case NOTE_ID:
-                qb.appendWhere(KEY_ID + "=" + uri.getPathSegments().get(1));
+                qb.appendWhere(KEY_ID + "=?");
+                selectionArgs = withNoteId(uri, selectionArgs);
+                break;
+            case CONFLICTS:
+                qb.setTables(CONFLICTS_TABLE);
+                break;
+            case SYNC_STATS:
+                qb.setTables(SYNC_STATS_TABLE);
+                break;
+            case SYNC_JOURNAL:
+                qb.setTables(SYNC_JOURNAL_TABLE);
+                break;
+            case OUTBOX:
+                qb.setTables(OUTBOX_TABLE);
                 break;
+            case SEARCH:
+                return search(uri);
             default:
                 break;
         }
@@ -94,8 +242,157 @@ public class NotesProvider extends ContentProvider {
         return c;
     }
 
+    /**
+     * @return the uri searching notes for all words of the given text, the
+     *         last one also matching as a prefix
+     */
+    public static Uri searchUri(String text) {
+        return SEARCH_URI.buildUpon().appendPath(text).build();
+    }
+
+    private Cursor search(Uri uri) {
+        final String match = toMatchQuery(uri.getPathSegments().size() > 1 ? uri
+                .getLastPathSegment() : null);
+        Cursor c;
+        if (match == null) {
+            c = new MatrixCursor(SEARCH_PROJECTION, 0);
+        } else {
+            c = notesDB.rawQuery(getSearchQuery(match), new String[] {
+                    match, String.valueOf(getSearchLimit(uri))
+            });
+        }
+        // results change with the notes themselves
+        c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+        return c;
+    }
+
+    /**
+     * @return the limit asked for, or {@link #SEARCH_DEFAULT_LIMIT} if there
+     *         is none or it is not a positive number
+     */
+    private static int getSearchLimit(Uri uri) {
+        final String limit = uri.getQueryParameter(SEARCH_LIMIT);
+        if (limit != null) {
+            try {
+                final int value = Integer.parseInt(limit);
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // the default then
+            }
+        }
+        return SEARCH_DEFAULT_LIMIT;
+    }
+
+    /**
+     * Turns search text into a full-text query matching all of its words. The
+     * words are quoted, so operators typed by the user are searched for like
+     * any other text instead of making the query invalid.
+     *
+     * @return the query, or null if the text has nothing to search for
+     */
+    private static String toMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : text.replace('"', ' ').trim().split("\\s+")) {
+            if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append('"').append(word).append('"');
+            }
+        }
+        if (match.length() == 0) {
+            return null;
+        }
+        // the last word may still be being typed; the prefix marker goes
+        // inside its quotes, "word"* is not a prefix query
+        return match.insert(match.length() - 1, '*').toString();
+    }
+
+    /**
+     * Returns the query for a search. It reads the most recently created
+     * matches from the full-text index once, with their snippets, and ranks
+     * those; the index hands out matches in docid order, so it stops there
+     * however many more there are.
+     *
+     * @param match the full-text query, one quoted phrase per word
+     */
+    private static String getSearchQuery(String match) {
+        final int words = (match.length() - match.replace("\"", "").length()) / 2;
+        // the number of the words found in the title: matchinfo 'x' has
+        // three counts for each word and column, the first the hits in this
+        // row, and the title is the first of two columns
+        final StringBuilder rank = new StringBuilder("0");
+        for (int i = 0; i < words; i++) {
+            rank.append(" + (substr(matchinfo(").append(FTS_TABLE).append(", 'x'), ")
+                    .append(i * 24 + 1).append(", 4) <> x'00000000')");
+        }
+
+        final String candidates = "SELECT " + KEY_DOCID + ", " + rank + " AS " + KEY_RANK
+                + ", snippet(" + FTS_TABLE + ", '" + SNIPPET_START + "', '" + SNIPPET_END
+                + "', '\u2026', -1, 12) AS " + KEY_SNIPPET + " FROM " + FTS_TABLE + " WHERE "
+                + FTS_TABLE + " MATCH ?1 ORDER BY " + KEY_DOCID + " DESC LIMIT "
+                + SEARCH_CANDIDATES;
+        return "SELECT " + DATABASE_TABLE + "." + KEY_ID + " AS " + KEY_ID + ", "
+                + DATABASE_TABLE + "." + KEY_TITLE + " AS " + KEY_TITLE + ", c." + KEY_SNIPPET
+                + " AS " + KEY_SNIPPET + ", " + DATABASE_TABLE + "." + KEY_LAST_MODIFIED + " AS "
+                + KEY_LAST_MODIFIED + " FROM (" + candidates + ") AS c JOIN " + DATABASE_TABLE
+                + " ON " + DATABASE_TABLE + "." + KEY_ID + "=c." + KEY_DOCID + " ORDER BY c."
+                + KEY_RANK + " DESC, " + DATABASE_TABLE + "." + KEY_LAST_MODIFIED
+                + " DESC LIMIT ?2";
+    }
+
+    /**
+     * @return the given uri, marked as being used by the drive sync
+     */
+    public static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(CALLER_IS_SYNC, "true").build();
+    }
+
+    private static boolean isCallerSync(Uri uri) {
+        return Boolean.parseBoolean(uri.getQueryParameter(CALLER_IS_SYNC));
+    }
+
+    /**
+     * @return a copy of the values which flags the note for upload, including
+     *         its body if that is being written
+     */
+    private static ContentValues markDirty(ContentValues values) {
+        return markDirty(values, System.currentTimeMillis());
+    }
+
+    private static ContentValues markDirty(ContentValues values, long now) {
+        ContentValues dirty = values != null ? new ContentValues(values) : new ContentValues();
+        dirty.put(KEY_DIRTY, 1);
+        if (dirty.containsKey(KEY_BODY)) {
+            dirty.put(KEY_BODY_DIRTY, 1);
+        }
+        dirty.put(KEY_LAST_MODIFIED, now);
+        return dirty;
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
+        switch (uriMatcher.match(uri)) {
+            case CONFLICTS:
+                return insertReplacing(CONFLICTS_TABLE, CONFLICTS_URI, uri, initialValues);
+            case SYNC_JOURNAL:
+                return insertReplacing(SYNC_JOURNAL_TABLE, SYNC_JOURNAL_URI, uri, initialValues);
+            case SYNC_STATS:
+                return insertSyncStats(uri, initialValues);
+            case ALL_NOTES:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        if (!isCallerSync(uri)) {
+            initialValues = markDirty(initialValues);
+        }
+
         // Insert the new row, will return the row number if
         // successful.
         long rowID = notesDB.insert(DATABASE_TABLE, "note", initialValues);
@@ -103,62 +400,355 @@ public class NotesProvider extends ContentProvider {
         // Return a URI to the newly inserted row on success.
         if (rowID > 0) {
             Uri newUri = ContentUris.withAppendedId(CONTENT_URI, rowID);
-            getContext().getContentResolver().notifyChange(newUri, null);
+            notifyChange(newUri, isCallerSync(uri));
+            return newUri;
+        }
+        throw new SQLException("Failed to insert row into " + uri);
+    }
+
+    /**
+     * Records a conflict or a journal entry, replacing any earlier one for the
+     * same note.
+     */
+    private Uri insertReplacing(String table, Uri tableUri, Uri uri, ContentValues values) {
+        long rowID = notesDB.insertWithOnConflict(table, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        if (rowID > 0) {
+            Uri newUri = ContentUris.withAppendedId(tableUri, rowID);
+            notifyChange(tableUri, isCallerSync(uri));
             return newUri;
         }
         throw new SQLException("Failed to insert row into " + uri);
     }
 
+    /**
+     * Records the stats of a sync, dropping those of older syncs beyond the
+     * number kept.
+     */
+    private Uri insertSyncStats(Uri uri, ContentValues values) {
+        long rowID = notesDB.insert(SYNC_STATS_TABLE, null, values);
+        if (rowID > 0) {
+            notesDB.delete(SYNC_STATS_TABLE, KEY_ID + "<=?", new String[] {
+                String.valueOf(rowID - SYNC_STATS_KEPT)
+            });
+            notifyChange(SYNC_STATS_URI, isCallerSync(uri));
+            return ContentUris.withAppendedId(SYNC_STATS_URI, rowID);
+        }
+        throw new SQLException("Failed to insert row into " + uri);
+    }
+
+    /**
+     * Inserts all notes in a single transaction, sending one change
+     * notification at the end. Every hundred rows waiting readers are let in,
+     * which commits the rows so far. Rows for the other tables are inserted
+     * one at a time.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (uriMatcher.match(uri) != ALL_NOTES) {
+            return super.bulkInsert(uri, values);
+        }
+        final boolean callerIsSync = isCallerSync(uri);
+        int count = 0;
+        notesDB.beginTransaction();
+        try {
+            for (ContentValues row : values) {
+                if (!callerIsSync) {
+                    row = markDirty(row);
+                }
+                if (notesDB.insert(DATABASE_TABLE, "note", row) <= 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                if (++count % BULK_INSERT_YIELD_INTERVAL == 0) {
+                    notesDB.yieldIfContendedSafely();
+                }
+            }
+            notesDB.setTransactionSuccessful();
+        } finally {
+            notesDB.endTransaction();
+        }
+        getContext().getContentResolver().notifyChange(uri, null, !callerIsSync);
+        return count;
+    }
+
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
         int count;
 
         switch (uriMatcher.match(uri)) {
             case ALL_NOTES:
-                count = notesDB.delete(DATABASE_TABLE, where, whereArgs);
+                count = deleteNotes(where, whereArgs, isCallerSync(uri));
                 break;
 
             case NOTE_ID:
-                String segment = uri.getPathSegments().get(1);
-                StringBuilder whereClause = new StringBuilder(KEY_ID).append("=").append(segment);
-                if (!TextUtils.isEmpty(where)) {
-                    whereClause.append(" AND (").append(where).append(")");
-                }
+                count = deleteNotes(whereNoteId(where), withNoteId(uri, whereArgs),
+                        isCallerSync(uri));
+                break;
 
-                count = notesDB.delete(DATABASE_TABLE, whereClause.toString(), whereArgs);
+            case CONFLICTS:
+                count = notesDB.delete(CONFLICTS_TABLE, where, whereArgs);
+                break;
+
+            case SYNC_STATS:
+                count = notesDB.delete(SYNC_STATS_TABLE, where, whereArgs);
+                break;
+
+            case SYNC_JOURNAL:
+                count = notesDB.delete(SYNC_JOURNAL_TABLE, where, whereArgs);
+                break;
+
+            case OUTBOX:
+                count = notesDB.delete(OUTBOX_TABLE, where, whereArgs);
                 break;
 
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri, isCallerSync(uri));
         return count;
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        final boolean callerIsSync = isCallerSync(uri);
+        final int match = uriMatcher.match(uri);
+        if (match != ALL_NOTES && match != NOTE_ID) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        if (values == null) {
+            throw new IllegalArgumentException("No values to update " + uri + " with");
+        }
         int count;
-        switch (uriMatcher.match(uri)) {
-            case ALL_NOTES:
-                count = notesDB.update(DATABASE_TABLE, values, where, whereArgs);
-                break;
+        if (callerIsSync || !values.containsKey(KEY_TITLE)) {
+            count = updateNotes(match, uri, values, where, whereArgs, callerIsSync,
+                    System.currentTimeMillis());
+        } else {
+            // a local edit that may rename notes in drive
+            final long now = System.currentTimeMillis();
+            notesDB.beginTransaction();
+            try {
+                if (match == NOTE_ID) {
+                    logRenames(values.getAsString(KEY_TITLE), now, whereNoteId(where),
+                            withNoteId(uri, whereArgs));
+                } else {
+                    logRenames(values.getAsString(KEY_TITLE), now, where, whereArgs);
+                }
+                count = updateNotes(match, uri, values, where, whereArgs, false, now);
+                notesDB.setTransactionSuccessful();
+            } finally {
+                notesDB.endTransaction();
+            }
+        }
 
-            case NOTE_ID:
-                String segment = uri.getPathSegments().get(1);
-                StringBuilder whereClause = new StringBuilder(KEY_ID).append("=").append(segment);
-                if (!TextUtils.isEmpty(where)) {
-                    whereClause.append(" AND (").append(where).append(")");
+        notifyChange(uri, callerIsSync);
+        return count;
+    }
+
+    /**
+     * @param now the modification time of local edits
+     */
+    private int updateNotes(int match, Uri uri, ContentValues values, String where,
+            String[] whereArgs, boolean callerIsSync, long now) {
+        if (match == NOTE_ID) {
+            String segment = uri.getPathSegments().get(1);
+            if (TextUtils.isEmpty(where)) {
+                final int count = updateNoteById(Long.parseLong(segment), values, callerIsSync,
+                        now);
+                if (count >= 0) {
+                    return count;
                 }
-                count = notesDB.update(DATABASE_TABLE, values, whereClause.toString(), whereArgs);
-                break;
+            }
+            where = whereNoteId(where);
+            whereArgs = withNoteId(uri, whereArgs);
+        }
+        if (!callerIsSync) {
+            values = markDirty(values, now);
+        }
+        return notesDB.update(DATABASE_TABLE, values, where, whereArgs);
+    }
 
-            default:
-                throw new IllegalArgumentException("Unknown URI " + uri);
+    /**
+     * Deletes notes, leaving a tombstone in the outbox for each one in drive
+     * unless the sync itself deletes them.
+     */
+    private int deleteNotes(String where, String[] whereArgs, boolean callerIsSync) {
+        if (callerIsSync) {
+            return notesDB.delete(DATABASE_TABLE, where, whereArgs);
         }
+        notesDB.beginTransaction();
+        try {
+            // any rename still in the outbox is replaced
+            notesDB.execSQL("INSERT OR REPLACE INTO " + OUTBOX_TABLE + "(" + KEY_NOTE_ID + ", "
+                    + KEY_DRIVE_ID + ", " + KEY_OP + ", " + KEY_LAST_MODIFIED + ") SELECT "
+                    + KEY_ID + ", " + KEY_DRIVE_ID + ", '" + OP_DELETE + "', ? FROM "
+                    + DATABASE_TABLE + " WHERE " + inDrive(where),
+                    concat(new Object[] {
+                        System.currentTimeMillis()
+                    }, whereArgs));
+            final int count = notesDB.delete(DATABASE_TABLE, where, whereArgs);
+            notesDB.setTransactionSuccessful();
+            return count;
+        } finally {
+            notesDB.endTransaction();
+        }
+    }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        return count;
+    /**
+     * Records in the outbox the renaming of those selected notes in drive
+     * whose title differs from the new one. The drive version the note is at
+     * is kept with it, so the rename can be made conditional on it.
+     * 
+     * @param now the modification time the renamed notes get
+     */
+    private void logRenames(String title, long now, String where, String[] whereArgs) {
+        notesDB.execSQL("INSERT OR REPLACE INTO " + OUTBOX_TABLE + "(" + KEY_NOTE_ID + ", "
+                + KEY_DRIVE_ID + ", " + KEY_OP + ", " + KEY_TITLE + ", " + KEY_ETAG + ", "
+                + KEY_LAST_MODIFIED + ") SELECT " + KEY_ID + ", " + KEY_DRIVE_ID + ", '"
+                + OP_RENAME + "', ?, " + KEY_ETAG + ", ? FROM " + DATABASE_TABLE + " WHERE "
+                + KEY_TITLE + " IS NOT ? AND " + inDrive(where), concat(new Object[] {
+                    title, now, title
+                }, whereArgs));
+    }
+
+    /**
+     * @return the selection limited to notes that are in drive
+     */
+    private static String inDrive(String where) {
+        if (TextUtils.isEmpty(where)) {
+            return KEY_DRIVE_ID + " IS NOT NULL";
+        }
+        return KEY_DRIVE_ID + " IS NOT NULL AND (" + where + ")";
+    }
+
+    private static Object[] concat(Object[] args, String[] moreArgs) {
+        if (moreArgs == null || moreArgs.length == 0) {
+            return args;
+        }
+        final Object[] all = new Object[args.length + moreArgs.length];
+        System.arraycopy(args, 0, all, 0, args.length);
+        System.arraycopy(moreArgs, 0, all, args.length, moreArgs.length);
+        return all;
+    }
+
+    /**
+     * @return the selection limited to a single note, whose id is bound as the
+     *         first argument, see {@link #withNoteId(Uri, String[])}
+     */
+    private static String whereNoteId(String where) {
+        if (TextUtils.isEmpty(where)) {
+            return KEY_ID + "=?";
+        }
+        return KEY_ID + "=? AND (" + where + ")";
+    }
+
+    /**
+     * Binds the id of a note uri rather than pasting it into the sql, so row
+     * operations on different notes share one compiled statement in sqlite's
+     * statement cache.
+     * 
+     * @return the arguments, preceded by the note id
+     */
+    private static String[] withNoteId(Uri uri, String[] args) {
+        final int count = args != null ? args.length : 0;
+        final String[] withId = new String[count + 1];
+        withId[0] = uri.getPathSegments().get(1);
+        if (count > 0) {
+            System.arraycopy(args, 0, withId, 1, count);
+        }
+        return withId;
+    }
+
+    /**
+     * Runs the common single note updates through a precompiled statement:
+     * local edits of title and body, and the sync recording a drive id or a
+     * modification time.
+     * 
+     * @return the number of rows updated, or -1 if the values do not match
+     *         any of the precompiled updates
+     */
+    private int updateNoteById(long id, ContentValues values, boolean callerIsSync, long now) {
+        if (!callerIsSync && values.size() == 2 && values.containsKey(KEY_TITLE)
+                && values.containsKey(KEY_BODY)) {
+            final SQLiteStatement statement = updateNoteStatement;
+            synchronized (statement) {
+                final String body = values.getAsString(KEY_BODY);
+                bindString(statement, 1, values.getAsString(KEY_TITLE));
+                bindString(statement, 2, body);
+                bindString(statement, 3, body);
+                statement.bindLong(4, now);
+                statement.bindLong(5, id);
+                return statement.executeUpdateDelete();
+            }
+        } else if (!callerIsSync) {
+            return -1;
+        } else if (values.size() == 1 && values.containsKey(KEY_DRIVE_ID)) {
+            final SQLiteStatement statement = setDriveIdStatement;
+            synchronized (statement) {
+                bindString(statement, 1, values.getAsString(KEY_DRIVE_ID));
+                statement.bindLong(2, id);
+                return statement.executeUpdateDelete();
+            }
+        } else if (values.size() == 1 && values.getAsLong(KEY_LAST_MODIFIED) != null) {
+            final SQLiteStatement statement = touchStatement;
+            synchronized (statement) {
+                statement.bindLong(1, values.getAsLong(KEY_LAST_MODIFIED));
+                statement.bindLong(2, id);
+                return statement.executeUpdateDelete();
+            }
+        }
+        return -1;
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Applies all operations in a single transaction. Operations marked as
+     * yield points let waiting readers in, which commits the work done so
+     * far, so a failure only rolls back the operations since the last yield.
+     * A batch without yield points is committed entirely or not at all. A
+     * single change notification is sent once the batch is done.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        boolean syncToNetwork = false;
+        applyingBatch.set(true);
+        notesDB.beginTransaction();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                final ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    notesDB.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+                syncToNetwork |= !isCallerSync(operation.getUri());
+            }
+            notesDB.setTransactionSuccessful();
+            return results;
+        } finally {
+            notesDB.endTransaction();
+            applyingBatch.set(false);
+            getContext().getContentResolver().notifyChange(CONTENT_URI, null, syncToNetwork);
+        }
+    }
+
+    /**
+     * Notifies observers of a change, asking for an upload sync unless the
+     * change came from the sync itself.
+     */
+    private void notifyChange(Uri uri, boolean callerIsSync) {
+        if (!Boolean.TRUE.equals(applyingBatch.get())) {
+            getContext().getContentResolver().notifyChange(uri, null, !callerIsSync);
+        }
     }
 
     @Override
@@ -168,6 +758,16 @@ public class NotesProvider extends ContentProvider {
                 return CONTENT_TYPE;
             case NOTE_ID:
                 return CONTENT_ITEM_TYPE;
+            case CONFLICTS:
+                return CONFLICTS_CONTENT_TYPE;
+            case SYNC_STATS:
+                return SYNC_STATS_CONTENT_TYPE;
+            case SYNC_JOURNAL:
+                return SYNC_JOURNAL_CONTENT_TYPE;
+            case OUTBOX:
+                return OUTBOX_CONTENT_TYPE;
+            case SEARCH:
+                return SEARCH_CONTENT_TYPE;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -179,6 +779,10 @@ public class NotesProvider extends ContentProvider {
     public static final String KEY_BODY = "body";
     public static final String KEY_LAST_MODIFIED = "last_modified";
     public static final String KEY_DRIVE_ID = "drive_id";
+    public static final String KEY_DIRTY = "dirty";
+    public static final String KEY_ETAG = "etag";
+    public static final String KEY_MD5 = "md5";
+    public static final String KEY_BODY_DIRTY = "body_dirty";
 
     // column indexes
     public static final int ID_COLUMN = 0;
@@ -186,39 +790,215 @@ public class NotesProvider extends ContentProvider {
     public static final int BODY_COLUMN = 2;
     public static final int LAST_MODIFIED_COLUMN = 3;
     public static final int DRIVE_ID_COLUMN = 4;
+    public static final int DIRTY_COLUMN = 5;
+    public static final int ETAG_COLUMN = 6;
+    public static final int MD5_COLUMN = 7;
+    public static final int BODY_DIRTY_COLUMN = 8;
+
+    // conflicts table column names, besides KEY_ID and KEY_DRIVE_ID
+    public static final String KEY_NOTE_ID = "note_id";
+    public static final String KEY_REMOTE_ETAG = "remote_etag";
+    public static final String KEY_DETECTED = "detected";
+
+    // sync stats table column names, besides KEY_ID; times are in
+    // milliseconds and bytes as sent over the wire
+    public static final String KEY_STARTED = "started";
+    public static final String KEY_DURATION = "duration";
+    public static final String KEY_TOKEN_TIME = "token_time";
+    public static final String KEY_UPLOAD_TIME = "upload_time";
+    public static final String KEY_LIST_TIME = "list_time";
+    public static final String KEY_RECONCILE_TIME = "reconcile_time";
+    public static final String KEY_DOWNLOAD_TIME = "download_time";
+    public static final String KEY_COMMIT_TIME = "commit_time";
+    public static final String KEY_REQUESTS = "requests";
+    public static final String KEY_RETRIES = "retries";
+    public static final String KEY_BYTES_SENT = "bytes_sent";
+    public static final String KEY_BYTES_RECEIVED = "bytes_received";
+    public static final String KEY_ROWS_WRITTEN = "rows_written";
+    public static final String KEY_ERRORS = "errors";
+
+    // sync journal table column names, besides KEY_ID, KEY_NOTE_ID and
+    // KEY_LAST_MODIFIED; the client id marks the drive file the upload creates
+    public static final String KEY_CLIENT_ID = "client_id";
+
+    // outbox table column names, besides KEY_ID, KEY_NOTE_ID, KEY_DRIVE_ID,
+    // KEY_TITLE for renames, KEY_ETAG and KEY_LAST_MODIFIED as of the change
+    public static final String KEY_OP = "op";
+
+    // search result column names, besides KEY_ID, KEY_TITLE and
+    // KEY_LAST_MODIFIED; the snippet is the part of the note best matching
+    // the search, with the matched words between SNIPPET_START and SNIPPET_END
+    public static final String KEY_SNIPPET = "snippet";
+
+    public static final String[] SEARCH_PROJECTION = {
+            KEY_ID, KEY_TITLE, KEY_SNIPPET, KEY_LAST_MODIFIED
+    };
+
+    // the full-text index keys each note by its row id
+    private static final String KEY_DOCID = "docid";
 
     private static final String TAG = "NotesDbAdapter";
 
     private static final String DATABASE_NAME = "cloudnotes.db";
     private static final String DATABASE_TABLE = "notes";
-    private static final int DATABASE_VERSION = 1;
+    private static final String CONFLICTS_TABLE = "conflicts";
+    private static final String SYNC_STATS_TABLE = "sync_stats";
+    private static final String SYNC_JOURNAL_TABLE = "sync_journal";
+    private static final String OUTBOX_TABLE = "outbox";
+    private static final String FTS_TABLE = "notes_fts";
+    static final int DATABASE_VERSION = 9;
+
+    // the rank of a search result, see getSearchQuery()
+    private static final String KEY_RANK = "rank";
 
     /**
-     * Database creation sql statement
+     * Database creation sql statement for the original (version 1) schema.
+     * Later versions are reached by applying each upgrade step in turn, see
+     * {@link NotesDatabaseHelper#upgradeTo(SQLiteDatabase, int)}.
      */
     private static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + "(" + KEY_ID
             + " INTEGER PRIMARY KEY AUTOINCREMENT, " + KEY_TITLE + " TEXT NOT NULL, " + KEY_BODY
             + " TEXT, " + KEY_LAST_MODIFIED + " INTEGER NOT NULL DEFAULT 0," + KEY_DRIVE_ID
             + " TEXT);";
 
-    private static class NotesDatabaseHelper extends SQLiteOpenHelper {
+    static class NotesDatabaseHelper extends SQLiteOpenHelper {
 
         NotesDatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            this(context, DATABASE_NAME, DATABASE_VERSION);
+        }
+
+        /**
+         * Opens the named database at the given version, so the migration
+         * tests can upgrade one version at a time.
+         */
+        NotesDatabaseHelper(Context context, String name, int version) {
+            super(context, name, null, version);
         }
 
         @Override
         public void onCreate(SQLiteDatabase db) {
-
+            // build the first schema and upgrade it, so new and upgraded
+            // databases always end up identical
             db.execSQL(DATABASE_CREATE);
+            onUpgrade(db, 1, DATABASE_VERSION);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion
-                    + ", which will destroy all old data");
-            db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE);
-            onCreate(db);
+            Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+            for (int version = oldVersion + 1; version <= newVersion; version++) {
+                upgradeTo(db, version);
+            }
+        }
+
+        /**
+         * Migrates the schema from the previous version to the given one,
+         * keeping all existing notes.
+         */
+        private void upgradeTo(SQLiteDatabase db, int version) {
+            switch (version) {
+                case 2:
+                    // a drive file belongs to at most one note; keep the
+                    // oldest note of any duplicates linked and let the others
+                    // be uploaded again
+                    db.execSQL("UPDATE " + DATABASE_TABLE + " SET " + KEY_DRIVE_ID
+                            + "=NULL WHERE " + KEY_ID + " NOT IN (SELECT MIN(" + KEY_ID
+                            + ") FROM " + DATABASE_TABLE + " GROUP BY " + KEY_DRIVE_ID + ")");
+                    // sqlite treats NULLs as distinct, so this only constrains
+                    // notes that are in drive
+                    db.execSQL("CREATE UNIQUE INDEX " + DATABASE_TABLE + "_" + KEY_DRIVE_ID
+                            + " ON " + DATABASE_TABLE + "(" + KEY_DRIVE_ID + ")");
+                    db.execSQL("CREATE INDEX " + DATABASE_TABLE + "_" + KEY_LAST_MODIFIED + " ON "
+                            + DATABASE_TABLE + "(" + KEY_LAST_MODIFIED + ")");
+                    break;
+                case 3:
+                    // set on every local edit until the sync has uploaded it
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + KEY_DIRTY
+                            + " INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL("CREATE INDEX " + DATABASE_TABLE + "_" + KEY_DIRTY + " ON "
+                            + DATABASE_TABLE + "(" + KEY_DIRTY + ")");
+                    break;
+                case 4:
+                    // the drive version each note was last synced with, for
+                    // conditional requests
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + KEY_ETAG
+                            + " TEXT");
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + KEY_MD5
+                            + " TEXT");
+                    db.execSQL("CREATE TABLE " + CONFLICTS_TABLE + "(" + KEY_ID
+                            + " INTEGER PRIMARY KEY AUTOINCREMENT, " + KEY_NOTE_ID
+                            + " INTEGER NOT NULL UNIQUE, " + KEY_DRIVE_ID + " TEXT, "
+                            + KEY_REMOTE_ETAG + " TEXT, " + KEY_DETECTED
+                            + " INTEGER NOT NULL DEFAULT 0);");
+                    // a conflict goes away with its note
+                    db.execSQL("CREATE TRIGGER " + DATABASE_TABLE + "_delete_" + CONFLICTS_TABLE
+                            + " AFTER DELETE ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                            + CONFLICTS_TABLE + " WHERE " + KEY_NOTE_ID + "=old." + KEY_ID
+                            + "; END");
+                    break;
+                case 5:
+                    // set along with the dirty flag when the body itself was
+                    // edited; notes already dirty may have body changes
+                    db.execSQL("ALTER TABLE " + DATABASE_TABLE + " ADD COLUMN " + KEY_BODY_DIRTY
+                            + " INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL("UPDATE " + DATABASE_TABLE + " SET " + KEY_BODY_DIRTY + "="
+                            + KEY_DIRTY);
+                    break;
+                case 6:
+                    db.execSQL("CREATE TABLE " + SYNC_STATS_TABLE + "(" + KEY_ID
+                            + " INTEGER PRIMARY KEY AUTOINCREMENT, " + KEY_STARTED
+                            + " INTEGER NOT NULL, " + KEY_DURATION + " INTEGER, "
+                            + KEY_TOKEN_TIME + " INTEGER, " + KEY_UPLOAD_TIME + " INTEGER, "
+                            + KEY_LIST_TIME + " INTEGER, " + KEY_RECONCILE_TIME + " INTEGER, "
+                            + KEY_DOWNLOAD_TIME + " INTEGER, " + KEY_COMMIT_TIME + " INTEGER, "
+                            + KEY_REQUESTS + " INTEGER, " + KEY_RETRIES + " INTEGER, "
+                            + KEY_BYTES_SENT + " INTEGER, " + KEY_BYTES_RECEIVED + " INTEGER, "
+                            + KEY_ROWS_WRITTEN + " INTEGER, " + KEY_ERRORS + " INTEGER);");
+                    break;
+                case 7:
+                    // entries outlive their note, a file created for a note
+                    // deleted meanwhile still has to be found and removed
+                    db.execSQL("CREATE TABLE " + SYNC_JOURNAL_TABLE + "(" + KEY_ID
+                            + " INTEGER PRIMARY KEY AUTOINCREMENT, " + KEY_NOTE_ID
+                            + " INTEGER NOT NULL UNIQUE, " + KEY_CLIENT_ID + " TEXT NOT NULL, "
+                            + KEY_LAST_MODIFIED + " INTEGER NOT NULL);");
+                    break;
+                case 8:
+                    // one entry per drive file, so writing an entry replaces
+                    // the earlier one
+                    db.execSQL("CREATE TABLE " + OUTBOX_TABLE + "(" + KEY_ID
+                            + " INTEGER PRIMARY KEY AUTOINCREMENT, " + KEY_NOTE_ID
+                            + " INTEGER NOT NULL, " + KEY_DRIVE_ID + " TEXT NOT NULL UNIQUE, "
+                            + KEY_OP + " TEXT NOT NULL, " + KEY_TITLE + " TEXT, " + KEY_ETAG
+                            + " TEXT, " + KEY_LAST_MODIFIED + " INTEGER NOT NULL);");
+                    break;
+                case 9:
+                    // a copy of the titles and bodies, indexed for search and
+                    // kept up to date by the triggers below; fts4 as older
+                    // platforms lack external content tables
+                    db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE + " USING fts4(" + KEY_TITLE
+                            + ", " + KEY_BODY + ")");
+                    db.execSQL("INSERT INTO " + FTS_TABLE + "(" + KEY_DOCID + ", " + KEY_TITLE
+                            + ", " + KEY_BODY + ") SELECT " + KEY_ID + ", " + KEY_TITLE + ", "
+                            + KEY_BODY + " FROM " + DATABASE_TABLE);
+                    db.execSQL("CREATE TRIGGER " + DATABASE_TABLE + "_insert_" + FTS_TABLE
+                            + " AFTER INSERT ON " + DATABASE_TABLE + " BEGIN INSERT INTO "
+                            + FTS_TABLE + "(" + KEY_DOCID + ", " + KEY_TITLE + ", " + KEY_BODY
+                            + ") VALUES (new." + KEY_ID + ", new." + KEY_TITLE + ", new."
+                            + KEY_BODY + "); END");
+                    // writes of only flags and etags leave the index alone
+                    db.execSQL("CREATE TRIGGER " + DATABASE_TABLE + "_update_" + FTS_TABLE
+                            + " AFTER UPDATE OF " + KEY_TITLE + ", " + KEY_BODY + " ON "
+                            + DATABASE_TABLE + " BEGIN UPDATE " + FTS_TABLE + " SET "
+                            + KEY_TITLE + "=new." + KEY_TITLE + ", " + KEY_BODY + "=new."
+                            + KEY_BODY + " WHERE " + KEY_DOCID + "=new." + KEY_ID + "; END");
+                    db.execSQL("CREATE TRIGGER " + DATABASE_TABLE + "_delete_" + FTS_TABLE
+                            + " AFTER DELETE ON " + DATABASE_TABLE + " BEGIN DELETE FROM "
+                            + FTS_TABLE + " WHERE " + KEY_DOCID + "=old." + KEY_ID + "; END");
+                    break;
+                default:
+                    throw new IllegalStateException("No upgrade to database version " + version);
+            }
         }
     }
 }
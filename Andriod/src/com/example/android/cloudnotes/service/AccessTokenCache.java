@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.cloudnotes.ui.HomeActivity;
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+import com.google.api.services.drive.DriveScopes;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the drive access token of each account in memory and in our prefs
+ * file, so most syncs start without asking for a token. Tokens are replaced in
+ * the background shortly before they expire; one drive rejects can be
+ * {@link #invalidate(String, String) invalidated} to fetch a fresh one.
+ */
+public class AccessTokenCache {
+
+    private static final String TAG = "AccessTokenCache";
+
+    private static final String OAUTH_SCOPE_PREFIX = "oauth2:";
+
+    // access tokens are good for an hour, assume a little less to allow for
+    // the age of the token when we got it
+    static final long TOKEN_LIFETIME = 50 * 60 * 1000L;
+
+    // tokens this close to expiry are still used, but replaced meanwhile
+    static final long REFRESH_WINDOW = 10 * 60 * 1000L;
+
+    // prefixes of the per account keys of the persisted token
+    static final String PREF_TOKEN = "accessToken_";
+    static final String PREF_EXPIRY = "accessTokenExpiry_";
+
+    /**
+     * Where tokens come from. Replace it with a stub to run the sync against a
+     * local server.
+     */
+    public interface TokenSource {
+
+        String fetchToken(String accountName) throws IOException, GoogleAuthException;
+
+        void invalidateToken(String token);
+    }
+
+    private static AccessTokenCache sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    private final TokenSource mSource;
+
+    // guarded by this
+    private final HashMap<String, Token> mTokens = new HashMap<String, Token>();
+    private final HashSet<String> mRefreshing = new HashSet<String>();
+
+    private final ExecutorService mRefresher = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread("CloudNotes Token Refresh") {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    };
+                }
+            });
+
+    public AccessTokenCache(SharedPreferences prefs, TokenSource source) {
+        mPrefs = prefs;
+        mSource = source;
+    }
+
+    /**
+     * @return the cache shared by the app, getting tokens from Google Play
+     *         services
+     */
+    public static synchronized AccessTokenCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AccessTokenCache(appContext.getSharedPreferences(
+                    HomeActivity.KEY_PREFS, Context.MODE_PRIVATE), new GoogleTokenSource(
+                    appContext));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return a token for the account, fetched only if there is no unexpired
+     *         one
+     */
+    public String getToken(String accountName) throws IOException, GoogleAuthException {
+        final Token token = peek(accountName);
+        final long now = System.currentTimeMillis();
+        if (token == null || now >= token.expiry) {
+            return fetch(accountName).value;
+        }
+        if (now >= token.expiry - REFRESH_WINDOW) {
+            refreshInBackground(accountName, token.value);
+        }
+        return token.value;
+    }
+
+    /**
+     * Drops a token drive has refused, so the next {@link #getToken(String)}
+     * fetches a new one.
+     */
+    public void invalidate(String accountName, String value) {
+        synchronized (this) {
+            final Token token = peek(accountName);
+            if (token != null && token.value.equals(value)) {
+                mTokens.remove(accountName);
+                mPrefs.edit().remove(PREF_TOKEN + accountName).remove(PREF_EXPIRY + accountName)
+                        .commit();
+            }
+        }
+        mSource.invalidateToken(value);
+    }
+
+    private synchronized Token peek(String accountName) {
+        Token token = mTokens.get(accountName);
+        if (token == null) {
+            final String value = mPrefs.getString(PREF_TOKEN + accountName, null);
+            if (value != null) {
+                token = new Token(value, mPrefs.getLong(PREF_EXPIRY + accountName, 0));
+                mTokens.put(accountName, token);
+            }
+        }
+        return token;
+    }
+
+    private Token fetch(String accountName) throws IOException, GoogleAuthException {
+        final Token token = new Token(mSource.fetchToken(accountName),
+                System.currentTimeMillis() + TOKEN_LIFETIME);
+        synchronized (this) {
+            mTokens.put(accountName, token);
+            mPrefs.edit().putString(PREF_TOKEN + accountName, token.value)
+                    .putLong(PREF_EXPIRY + accountName, token.expiry).commit();
+        }
+        return token;
+    }
+
+    private void refreshInBackground(final String accountName, final String oldValue) {
+        synchronized (this) {
+            if (!mRefreshing.add(accountName)) {
+                return;
+            }
+        }
+        mRefresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the token source hands out its cached token until
+                    // that is invalidated
+                    mSource.invalidateToken(oldValue);
+                    fetch(accountName);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to refresh access token", e);
+                } catch (GoogleAuthException e) {
+                    Log.w(TAG, "Failed to refresh access token", e);
+                } finally {
+                    synchronized (AccessTokenCache.this) {
+                        mRefreshing.remove(accountName);
+                    }
+                }
+            }
+        });
+    }
+
+    private static class Token {
+
+        final String value;
+        final long expiry;
+
+        Token(String value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    private static class GoogleTokenSource implements TokenSource {
+
+        private final Context mContext;
+
+        GoogleTokenSource(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public String fetchToken(String accountName) throws IOException, GoogleAuthException {
+            return GoogleAuthUtil.getToken(mContext, accountName, OAUTH_SCOPE_PREFIX
+                    + DriveScopes.DRIVE_FILE);
+        }
+
+        @Override
+        public void invalidateToken(String token) {
+            GoogleAuthUtil.invalidateToken(mContext, token);
+        }
+    }
+
+}
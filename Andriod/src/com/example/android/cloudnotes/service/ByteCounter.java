@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes a sync moves, both as content and as sent over the wire
+ * after compression, so the effect of gzip can be seen. Safe to update from
+ * several transfer threads at once.
+ */
+public class ByteCounter {
+
+    private final AtomicLong mContentSent = new AtomicLong();
+    private final AtomicLong mWireSent = new AtomicLong();
+    private final AtomicLong mContentReceived = new AtomicLong();
+    private final AtomicLong mWireReceived = new AtomicLong();
+
+    public void addSent(long contentBytes, long wireBytes) {
+        mContentSent.addAndGet(contentBytes);
+        mWireSent.addAndGet(wireBytes);
+    }
+
+    public void addReceived(long contentBytes, long wireBytes) {
+        mContentReceived.addAndGet(contentBytes);
+        mWireReceived.addAndGet(wireBytes);
+    }
+
+    public long getContentSent() {
+        return mContentSent.get();
+    }
+
+    public long getWireSent() {
+        return mWireSent.get();
+    }
+
+    public long getContentReceived() {
+        return mContentReceived.get();
+    }
+
+    public long getWireReceived() {
+        return mWireReceived.get();
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + getWireSent() + "/" + getContentSent() + " bytes, received "
+                + getWireReceived() + "/" + getContentReceived() + " bytes (wire/content)";
+    }
+
+    /**
+     * An output stream counting the bytes written through it.
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * An input stream counting the bytes read through it.
+     */
+    static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+}
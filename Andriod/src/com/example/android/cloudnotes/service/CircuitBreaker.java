@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Stops requests to drive for a while once too many of them fail in a short
+ * time, so a dead network or an overloaded server isn't kept busy by syncs
+ * that cannot succeed. While open, requests fail at once with a
+ * {@link CircuitOpenException}. The first failure after it closes again opens
+ * it for twice as long as before.
+ */
+public class CircuitBreaker {
+
+    private static final String TAG = "CircuitBreaker";
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long mRetryTime;
+
+        CircuitOpenException(long retryTime) {
+            super("Drive requests suspended after repeated failures");
+            mRetryTime = retryTime;
+        }
+
+        /**
+         * @return the time in milliseconds since the epoch from which
+         *         requests are let through again
+         */
+        public long getRetryTime() {
+            return mRetryTime;
+        }
+    }
+
+    private final int mThreshold;
+
+    private final long mWindow;
+
+    private final long mMinOpenTime;
+
+    private final long mMaxOpenTime;
+
+    // guarded by this
+    private int mFailures;
+    private long mWindowStart;
+    private long mOpenUntil;
+    private long mOpenTime;
+    private int mTripCount;
+
+    /**
+     * @param threshold the number of failures that opens the breaker
+     * @param window the time in milliseconds within which they have to occur
+     * @param minOpenTime how long the breaker first stays open, in
+     *            milliseconds
+     * @param maxOpenTime the longest it stays open after failing repeatedly
+     */
+    public CircuitBreaker(int threshold, long window, long minOpenTime, long maxOpenTime) {
+        mThreshold = threshold;
+        mWindow = window;
+        mMinOpenTime = minOpenTime;
+        mMaxOpenTime = maxOpenTime;
+    }
+
+    /**
+     * @throws CircuitOpenException if requests are currently suspended
+     */
+    public synchronized void checkClosed() throws CircuitOpenException {
+        if (System.currentTimeMillis() < mOpenUntil) {
+            throw new CircuitOpenException(mOpenUntil);
+        }
+    }
+
+    /**
+     * Counts a failed request, opening the breaker if there were too many.
+     */
+    public synchronized void recordFailure() {
+        final long now = System.currentTimeMillis();
+        if (now < mOpenUntil) {
+            // requests that were already under way
+            return;
+        }
+        if (mTripCount > 0 && now - mOpenUntil < mWindow) {
+            // still failing right after a rest
+            trip(now, Math.min(mOpenTime * 2, mMaxOpenTime));
+            return;
+        }
+        if (now - mWindowStart >= mWindow) {
+            mWindowStart = now;
+            mFailures = 0;
+        }
+        if (++mFailures >= mThreshold) {
+            trip(now, mMinOpenTime);
+        }
+    }
+
+    /**
+     * Suspends requests until the given time at least, as asked by drive.
+     */
+    public synchronized void holdUntil(long time) {
+        if (time > mOpenUntil) {
+            mOpenUntil = time;
+            mOpenTime = Math.max(mMinOpenTime, Math.min(time - System.currentTimeMillis(),
+                    mMaxOpenTime));
+            mTripCount++;
+        }
+    }
+
+    /**
+     * @return the number of times the breaker has opened
+     */
+    public synchronized int getTripCount() {
+        return mTripCount;
+    }
+
+    private void trip(long now, long openTime) {
+        mOpenTime = openTime;
+        mOpenUntil = now + openTime;
+        mFailures = 0;
+        mTripCount++;
+        Log.w(TAG, "Suspending drive requests for " + openTime / 1000 + "s");
+    }
+
+}
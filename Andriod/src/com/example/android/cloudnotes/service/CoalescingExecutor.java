@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Runs a task on a background thread, one run at a time. Requests made while a
+ * run is in progress are merged into a single follow-up run, so a burst of
+ * requests costs at most two runs and never more than one thread.
+ */
+public class CoalescingExecutor {
+
+    private static final String TAG = "CoalescingExecutor";
+
+    private final String mName;
+
+    private final Runnable mTask;
+
+    // guarded by this
+    private boolean mRunning;
+    private boolean mRerun;
+    private long mGeneration;
+    private int mLastRequestId;
+
+    /**
+     * @param name the name of the worker thread
+     */
+    public CoalescingExecutor(String name, Runnable task) {
+        mName = name;
+        mTask = task;
+    }
+
+    /**
+     * Asks for a run of the task. Starts one if none is in progress, otherwise
+     * makes sure another run follows the current one.
+     * 
+     * @param requestId identifies the request, such as a service start id;
+     *            handed to {@link #onIdle(int)} once a run has covered it
+     * @return true if a run was started, false if the request was merged
+     */
+    public boolean request(int requestId) {
+        synchronized (this) {
+            mLastRequestId = requestId;
+            if (mRunning) {
+                mRerun = true;
+                return false;
+            }
+            mRunning = true;
+        }
+        new Thread(mWorker, mName).start();
+        return true;
+    }
+
+    /**
+     * @return the number of runs started so far; while a run is in progress,
+     *         this is its number
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Called on the worker thread once the last requested run is done. A
+     * request may already have started a new run by the time this is called,
+     * in which case its id is a later one than the given id.
+     * 
+     * @param lastRequestId the id of the last request the finished runs
+     *            covered
+     */
+    protected void onIdle(int lastRequestId) {
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean again = true;
+            int lastRequestId = 0;
+            while (again) {
+                synchronized (CoalescingExecutor.this) {
+                    mGeneration++;
+                    mRerun = false;
+                }
+                try {
+                    mTask.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, mName + " failed", e);
+                }
+                synchronized (CoalescingExecutor.this) {
+                    again = mRerun;
+                    mRunning = again;
+                    // read along with going idle, a request from here on
+                    // starts a run of its own
+                    lastRequestId = mLastRequestId;
+                }
+            }
+            onIdle(lastRequestId);
+        }
+    };
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.Context;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.services.drive.Drive;
+
+import java.io.IOException;
+
+/**
+ * Holds what the drive requests of every sync share: one http transport, so
+ * connections and TLS sessions are kept alive and reused from one sync to
+ * the next, one JSON factory, the access token cache and the circuit
+ * breaker. The {@link Drive} services handed out are cheap wrappers around
+ * them, one per sync.
+ */
+public class DriveClient {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    // the circuit breaker opens after this many failures within a minute
+    private static final int BREAKER_THRESHOLD = 10;
+    private static final long BREAKER_WINDOW = 60 * 1000;
+    private static final long BREAKER_MIN_OPEN = 30 * 1000;
+    private static final long BREAKER_MAX_OPEN = 15 * 60 * 1000;
+
+    private static DriveClient sInstance;
+
+    private final HttpTransport mTransport;
+
+    private final JsonFactory mJsonFactory;
+
+    private final AccessTokenCache mTokens;
+
+    private final CircuitBreaker mBreaker = new CircuitBreaker(BREAKER_THRESHOLD,
+            BREAKER_WINDOW, BREAKER_MIN_OPEN, BREAKER_MAX_OPEN);
+
+    public DriveClient(HttpTransport transport, JsonFactory jsonFactory, AccessTokenCache tokens) {
+        mTransport = transport;
+        mJsonFactory = jsonFactory;
+        mTokens = tokens;
+    }
+
+    /**
+     * @return the client shared by the app
+     */
+    public static synchronized DriveClient getInstance(Context context) {
+        if (sInstance == null) {
+            final SyncSettings settings = new SyncSettings(context);
+            sInstance = new DriveClient(newPooledTransport(settings.getTransferParallelism()),
+                    new JacksonFactory(), AccessTokenCache.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxConnections the number of idle connections to drive kept
+     *            open for reuse
+     */
+    private static HttpTransport newPooledTransport(int maxConnections) {
+        // HttpURLConnection pools keep-alive connections process wide; by
+        // default it keeps fewer than we make at once
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxConnections + 1));
+        return new NetHttpTransport();
+    }
+
+    public AccessTokenCache getTokens() {
+        return mTokens;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mBreaker;
+    }
+
+    /**
+     * Returns a drive service making requests on behalf of the account. Bodies
+     * of at least the given size are sent gzipped, and gzipped responses are
+     * asked for.
+     * 
+     * @param rootUrl the root url of the drive api, or null for drive itself
+     * @param stats counts the requests made and the request body bytes sent
+     * @param retries retries the requests that fail for a passing reason
+     */
+    public Drive newDrive(String accountName, String rootUrl, int gzipThreshold,
+            SyncStats stats, RetryPolicy retries) {
+        final Drive.Builder builder = new Drive.Builder(mTransport, mJsonFactory,
+                new RequestInitializer(accountName, gzipThreshold, stats, retries));
+        if (rootUrl != null) {
+            // uploads and batches are sent relative to it too
+            builder.setRootUrl(rootUrl);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sets up every request of a drive service.
+     */
+    private class RequestInitializer implements HttpRequestInitializer {
+
+        private final String mAccountName;
+
+        private final int mGzipThreshold;
+
+        private final SyncStats mStats;
+
+        private final RetryPolicy mRetries;
+
+        RequestInitializer(String accountName, int gzipThreshold, SyncStats stats,
+                RetryPolicy retries) {
+            mAccountName = accountName;
+            mGzipThreshold = gzipThreshold;
+            mStats = stats;
+            mRetries = retries;
+        }
+
+        @Override
+        public void initialize(HttpRequest request) {
+            request.setInterceptor(new RequestInterceptor(mAccountName, mGzipThreshold,
+                    mStats, mRetries));
+            request.setUnsuccessfulResponseHandler(new AuthRetryHandler(mAccountName));
+            mRetries.install(request);
+        }
+    }
+
+    /**
+     * Authorizes each attempt of a request with the account's current token,
+     * compresses its body and counts it.
+     */
+    private class RequestInterceptor implements HttpExecuteInterceptor {
+
+        private final String mAccountName;
+
+        private final int mGzipThreshold;
+
+        private final SyncStats mStats;
+
+        private final ByteCounter mCounter;
+
+        private final RetryPolicy mRetries;
+
+        RequestInterceptor(String accountName, int gzipThreshold, SyncStats stats,
+                RetryPolicy retries) {
+            mAccountName = accountName;
+            mGzipThreshold = gzipThreshold;
+            mStats = stats;
+            mCounter = stats.getBytes();
+            mRetries = retries;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            mStats.countRequest();
+            try {
+                request.getHeaders().setAuthorization(
+                        BEARER_PREFIX + mTokens.getToken(mAccountName));
+            } catch (GoogleAuthException e) {
+                throw new IOException("No access token for drive request", e);
+            }
+
+            // notes are plain text and compress well, so ask for gzipped
+            // responses and send large bodies gzipped
+            request.getHeaders().setAcceptEncoding("gzip");
+            final HttpContent content = request.getContent();
+            if (content != null && !(content instanceof GzipContent)) {
+                final long length = content.getLength();
+                // chunks of a resumable upload are byte ranges of the
+                // content, so they have to go as they are, and so do the
+                // parts of a batch, which are written with their length
+                if (content.getEncoding() == null && !mRetries.isInBatch()
+                        && request.getHeaders().getContentRange() == null
+                        && (length < 0 || length >= mGzipThreshold)) {
+                    // the library would gzip it a second time, uncounted
+                    request.setEnableGZipContent(false);
+                    request.setContent(new GzipContent(content, mCounter));
+                } else if (length > 0) {
+                    mCounter.addSent(length, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retries a request drive refused as unauthorized once, with a new token.
+     */
+    private class AuthRetryHandler implements HttpUnsuccessfulResponseHandler {
+
+        private final String mAccountName;
+
+        private boolean mRetried;
+
+        AuthRetryHandler(String accountName) {
+            mAccountName = accountName;
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+                boolean retrySupported) {
+            final String authorization = request.getHeaders().getAuthorization();
+            if (response.getStatusCode() != HttpStatusCodes.STATUS_CODE_UNAUTHORIZED
+                    || mRetried || !retrySupported || authorization == null) {
+                return false;
+            }
+            mRetried = true;
+            mTokens.invalidate(mAccountName, authorization.substring(BEARER_PREFIX.length()));
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.text.TextUtils;
+
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over every file in a drive listing, fetching one page at a time and
+ * following the page tokens until the listing is exhausted. Only the fields
+ * the sync needs are requested.
+ */
+public class DriveFileIterator {
+
+    /**
+     * Partial response selector for the file fields used when syncing.
+     */
+    public static final String FILE_FIELDS = "id,title,labels/trashed,modifiedDate,downloadUrl,"
+            + "fileSize,etag,md5Checksum";
+
+    private static final String LIST_FIELDS = "nextPageToken,items(" + FILE_FIELDS + ")";
+
+    private final Drive mDrive;
+
+    private final int mPageSize;
+
+    private Iterator<File> mPage = Collections.<File> emptyList().iterator();
+
+    private String mPageToken;
+
+    private boolean mLastPage = false;
+
+    public DriveFileIterator(Drive drive, int pageSize) {
+        mDrive = drive;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * @return true if there are more files, fetching the next page if needed
+     */
+    public boolean hasNext() throws IOException {
+        while (!mPage.hasNext() && !mLastPage) {
+            fetchPage();
+        }
+        return mPage.hasNext();
+    }
+
+    public File next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mPage.next();
+    }
+
+    private void fetchPage() throws IOException {
+        FileList page = mDrive.files().list().setMaxResults(mPageSize)
+                .setPageToken(mPageToken).setFields(LIST_FIELDS).execute();
+        if (page.getItems() != null) {
+            mPage = page.getItems().iterator();
+        }
+        mPageToken = page.getNextPageToken();
+        mLastPage = TextUtils.isEmpty(mPageToken);
+    }
+
+}
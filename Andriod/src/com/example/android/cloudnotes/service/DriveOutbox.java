@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.google.api.client.googleapis.GoogleHeaders;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Sends the local deletions and renames recorded in the provider's outbox to
+ * drive, as HTTP batches of up to a given size. Deleted notes are moved to
+ * the drive trash. Renames are conditional on the drive version the note was
+ * at, so one that changed in drive since is recorded as a conflict. An entry
+ * is removed in the same provider transaction that saves its result, and
+ * entries that fail stay for the next sync.
+ */
+public class DriveOutbox {
+
+    private static final String TAG = "DriveOutbox";
+
+    private static final int STATUS_CODE_PRECONDITION_FAILED = 412;
+
+    private static final Uri OUTBOX_SYNC_URI = NotesProvider
+            .asSyncAdapter(NotesProvider.OUTBOX_URI);
+
+    private static final Uri CONFLICTS_SYNC_URI = NotesProvider
+            .asSyncAdapter(NotesProvider.CONFLICTS_URI);
+
+    private final Drive mDrive;
+
+    private final RetryPolicy mRetries;
+
+    private final ContentResolver mResolver;
+
+    private final int mBatchSize;
+
+    private final ArrayList<ContentProviderOperation> mWrites =
+            new ArrayList<ContentProviderOperation>();
+
+    private int mFailures = 0;
+
+    private int mConflicts = 0;
+
+    private int mWriteCount = 0;
+
+    public DriveOutbox(Drive drive, RetryPolicy retries, ContentResolver resolver,
+            int batchSize) {
+        mDrive = drive;
+        mRetries = retries;
+        mResolver = resolver;
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sends every entry in the outbox, oldest first.
+     */
+    public void drain() throws IOException {
+        Cursor c = mResolver.query(NotesProvider.OUTBOX_URI, OutboxQuery.PROJECTION, null, null,
+                NotesProvider.KEY_ID);
+        try {
+            BatchRequest batch = mRetries.newBatch(mDrive);
+            while (c.moveToNext()) {
+                final Entry entry = new Entry(c.getLong(OutboxQuery.ID),
+                        c.getLong(OutboxQuery.NOTE_ID), c.getString(OutboxQuery.DRIVE_ID),
+                        NotesProvider.OP_RENAME.equals(c.getString(OutboxQuery.OP)),
+                        c.getString(OutboxQuery.TITLE), c.getString(OutboxQuery.ETAG),
+                        c.getLong(OutboxQuery.LAST_MODIFIED));
+                if (!entry.rename) {
+                    mDrive.files().trash(entry.driveId).setFields("id")
+                            .queue(batch, new EntryCallback(entry));
+                } else {
+                    final File renamed = new File();
+                    renamed.setTitle(entry.title);
+                    final Drive.Files.Patch patch = mDrive.files().patch(entry.driveId, renamed);
+                    if (entry.etag != null) {
+                        final GoogleHeaders ifMatch = new GoogleHeaders();
+                        ifMatch.setIfMatch(entry.etag);
+                        patch.setRequestHeaders(ifMatch);
+                    }
+                    patch.setFields("etag").queue(batch, new EntryCallback(entry));
+                }
+                if (batch.size() >= mBatchSize) {
+                    send(batch);
+                    batch = mRetries.newBatch(mDrive);
+                }
+            }
+            if (batch.size() > 0) {
+                send(batch);
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return the number of entries drive refused so far
+     */
+    public int getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * @return the number of renames not made because the note changed in
+     *         drive
+     */
+    public int getConflictCount() {
+        return mConflicts;
+    }
+
+    /**
+     * @return the number of rows written for sent entries so far
+     */
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    private void send(BatchRequest batch) throws IOException {
+        try {
+            mRetries.execute(batch);
+        } finally {
+            commitWrites();
+        }
+    }
+
+    private void commitWrites() {
+        if (mWrites.isEmpty()) {
+            return;
+        }
+        try {
+            mWriteCount += mResolver.applyBatch(NotesProvider.CONTENT_AUTHORITY, mWrites).length;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to save sent outbox entries", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Failed to save sent outbox entries", e);
+        } finally {
+            mWrites.clear();
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        // by row id, so an entry written since for the same file stays
+        mWrites.add(ContentProviderOperation.newDelete(OUTBOX_SYNC_URI)
+                .withSelection(NotesProvider.KEY_ID + "=?", new String[] {
+                    String.valueOf(entry.id)
+                }).build());
+    }
+
+    private void saveRenamed(Entry entry, File renamed) {
+        final Uri noteUri = NotesProvider.asSyncAdapter(ContentUris.withAppendedId(
+                NotesProvider.CONTENT_URI, entry.noteId));
+        // the new version is recorded even if the note changed again, or
+        // its next upload would conflict with the rename
+        mWrites.add(ContentProviderOperation.newUpdate(noteUri)
+                .withValue(NotesProvider.KEY_ETAG, renamed.getEtag()).build());
+        mWrites.add(ContentProviderOperation.newUpdate(noteUri)
+                .withValue(NotesProvider.KEY_DIRTY, 0)
+                .withSelection(NotesProvider.KEY_LAST_MODIFIED + "=? AND "
+                        + NotesProvider.KEY_BODY_DIRTY + "=0", new String[] {
+                    String.valueOf(entry.lastModified)
+                }).build());
+        removeEntry(entry);
+    }
+
+    private void saveConflict(Entry entry) {
+        Log.w(TAG, "Note " + entry.noteId + " changed in drive since it was renamed");
+        mConflicts++;
+        mWrites.add(ContentProviderOperation.newInsert(CONFLICTS_SYNC_URI)
+                .withValue(NotesProvider.KEY_NOTE_ID, entry.noteId)
+                .withValue(NotesProvider.KEY_DRIVE_ID, entry.driveId)
+                .withValue(NotesProvider.KEY_DETECTED, System.currentTimeMillis()).build());
+        removeEntry(entry);
+    }
+
+    /**
+     * Saves the result of sending an entry.
+     */
+    private class EntryCallback extends JsonBatchCallback<File> {
+
+        private final Entry mEntry;
+
+        EntryCallback(Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public void onSuccess(File file, GoogleHeaders headers) {
+            if (mEntry.rename) {
+                saveRenamed(mEntry, file);
+            } else {
+                removeEntry(mEntry);
+            }
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError error, GoogleHeaders headers) {
+            if (error.getCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                // gone from drive already, nothing left to do
+                removeEntry(mEntry);
+            } else if (error.getCode() == STATUS_CODE_PRECONDITION_FAILED && mEntry.rename) {
+                saveConflict(mEntry);
+            } else {
+                Log.w(TAG, "Failed to send outbox entry for note " + mEntry.noteId + ": "
+                        + error.getMessage());
+                mFailures++;
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final long id;
+        final long noteId;
+        final String driveId;
+        // false for a delete
+        final boolean rename;
+        final String title;
+        final String etag;
+        final long lastModified;
+
+        Entry(long id, long noteId, String driveId, boolean rename, String title, String etag,
+                long lastModified) {
+            this.id = id;
+            this.noteId = noteId;
+            this.driveId = driveId;
+            this.rename = rename;
+            this.title = title;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private interface OutboxQuery {
+
+        final static String[] PROJECTION = {
+                NotesProvider.KEY_ID, NotesProvider.KEY_NOTE_ID, NotesProvider.KEY_DRIVE_ID,
+                NotesProvider.KEY_OP, NotesProvider.KEY_TITLE, NotesProvider.KEY_ETAG,
+                NotesProvider.KEY_LAST_MODIFIED
+        };
+
+        final static int ID = 0;
+        final static int NOTE_ID = 1;
+        final static int DRIVE_ID = 2;
+        final static int OP = 3;
+        final static int TITLE = 4;
+        final static int ETAG = 5;
+        final static int LAST_MODIFIED = 6;
+    }
+
+}
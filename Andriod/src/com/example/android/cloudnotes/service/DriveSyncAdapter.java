@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Bundle;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.example.android.cloudnotes.ui.HomeActivity;
+import com.google.android.gms.auth.GoogleAuthUtil;
+
+/**
+ * Lets the platform sync framework run the drive sync, periodically and after
+ * local edits. The framework decides when to sync, batching our network use
+ * with other apps', and backs off after the errors recorded in the
+ * {@link SyncResult}.
+ */
+public class DriveSyncAdapter extends AbstractThreadedSyncAdapter {
+
+    public static final String ACCOUNT_TYPE = GoogleAuthUtil.GOOGLE_ACCOUNT_TYPE;
+
+    public DriveSyncAdapter(Context context) {
+        super(context, true);
+    }
+
+    @Override
+    public void onPerformSync(Account account, Bundle extras, String authority,
+            ContentProviderClient provider, SyncResult syncResult) {
+        final String syncAccountName = getContext().getSharedPreferences(HomeActivity.KEY_PREFS,
+                Context.MODE_PRIVATE).getString(AccountManager.KEY_ACCOUNT_NAME, null);
+        if (!account.name.equals(syncAccountName)) {
+            // not (or no longer) the account the user picked for syncing
+            ContentResolver.setIsSyncable(account, authority, 0);
+            return;
+        }
+        new DriveSyncer(getContext()).performSync(account.name, syncResult, new SyncStats());
+    }
+
+    /**
+     * Turns on automatic syncing of the notes for the account, with periodic
+     * syncs at the interval from {@link SyncSettings#getSyncInterval()}.
+     */
+    public static void enableSync(Context context, String accountName) {
+        final Account account = new Account(accountName, ACCOUNT_TYPE);
+        final String authority = NotesProvider.CONTENT_AUTHORITY;
+        ContentResolver.setIsSyncable(account, authority, 1);
+        ContentResolver.setSyncAutomatically(account, authority, true);
+        final long interval = new SyncSettings(context).getSyncInterval();
+        if (interval > 0) {
+            ContentResolver.addPeriodicSync(account, authority, new Bundle(), interval);
+        } else {
+            ContentResolver.removePeriodicSync(account, authority, new Bundle());
+        }
+    }
+
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.example.android.cloudnotes.ui.HomeActivity;
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.File;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashSet;
+
+/**
+ * Syncs the notes of an account with drive: sends local deletions and
+ * renames, uploads new and edited notes, then applies the remote changes.
+ * Used both for syncs started from the app and by the sync adapter; only one
+ * sync runs in the process at a time, whoever started it.
+ */
+public class DriveSyncer {
+
+    private static final String TAG = "DriveSyncer";
+
+    private static final String NOTE_MIME_TYPE = "text/plain";
+
+    // prefix of the per account key holding the last change id we synced
+    private static final String PREF_LARGEST_CHANGE_ID = "largestChangeId_";
+
+    // partial response selector for the changes feed
+    private static final String CHANGE_LIST_FIELDS = "nextPageToken,largestChangeId,"
+            + "items(fileId,deleted,file(" + DriveFileIterator.FILE_FIELDS + "))";
+
+    // waits between retries of a failed drive request, in milliseconds
+    private static final long INITIAL_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 32 * 1000;
+
+    private static final Object sSyncLock = new Object();
+
+    private final Context mContext;
+
+    private final DriveClient mClient;
+
+    public DriveSyncer(Context context) {
+        this(context, DriveClient.getInstance(context));
+    }
+
+    public DriveSyncer(Context context, DriveClient client) {
+        mContext = context.getApplicationContext();
+        mClient = client;
+    }
+
+    /**
+     * Runs a complete sync for the account, waiting for any sync already in
+     * progress to finish first. Errors are counted in the sync result, and the
+     * stats are stored in the sync stats table once the sync is done.
+     * 
+     * @return false if no access token could be had for the account
+     */
+    public boolean performSync(String accountName, SyncResult syncResult, SyncStats stats) {
+        synchronized (sSyncLock) {
+            try {
+                // usually served from the cache, this surfaces auth problems
+                // before any drive request is made
+                final long tokenStart = SyncStats.now();
+                final String token = getAccessToken(accountName, syncResult);
+                stats.addTime(SyncStats.PHASE_TOKEN, tokenStart);
+                if (TextUtils.isEmpty(token)) {
+                    return false;
+                }
+                syncNotes(accountName, syncResult, stats);
+                return true;
+            } finally {
+                saveStats(syncResult, stats);
+            }
+        }
+    }
+
+    private void saveStats(SyncResult syncResult, SyncStats stats) {
+        stats.setErrors((int) (syncResult.stats.numIoExceptions
+                + syncResult.stats.numAuthExceptions + syncResult.stats.numParseExceptions));
+        stats.finish();
+        Log.i(TAG, "Sync " + stats);
+        try {
+            mContext.getContentResolver().insert(
+                    NotesProvider.asSyncAdapter(NotesProvider.SYNC_STATS_URI), stats.toValues());
+        } catch (SQLException e) {
+            Log.w(TAG, "Failed to save sync stats", e);
+        }
+    }
+
+    private String getAccessToken(final String syncAccount, SyncResult syncResult) {
+        try {
+            return mClient.getTokens().getToken(syncAccount);
+        } catch (UserRecoverableAuthException e) {
+            Intent authRequiredIntent = new Intent(HomeActivity.LB_AUTH_APP);
+            authRequiredIntent.putExtra(HomeActivity.EXTRA_AUTH_APP_INTENT, e.getIntent());
+            LocalBroadcastManager.getInstance(mContext).sendBroadcast(
+                    authRequiredIntent);
+            syncResult.stats.numAuthExceptions++;
+        } catch (IOException e) {
+            // soft error, the sync framework retries with backoff
+            syncResult.stats.numIoExceptions++;
+        } catch (GoogleAuthException e) {
+            Log.e(TAG, "Fatal authorization exception", e);
+            syncResult.stats.numAuthExceptions++;
+        }
+        return null;
+    }
+
+    private void syncNotes(final String syncAccountName, SyncResult syncResult,
+            SyncStats stats) {
+        final SyncSettings settings = new SyncSettings(mContext);
+        final RetryPolicy retries = new RetryPolicy(mClient.getCircuitBreaker(),
+                settings.getMaxRetries(), INITIAL_BACKOFF, MAX_BACKOFF);
+        // read for each sync, so a change of endpoint applies to the next one
+        final Drive drive = mClient.newDrive(syncAccountName, settings.getDriveRootUrl(),
+                settings.getGzipThreshold(), stats, retries);
+        ContentResolver cr = mContext.getContentResolver();
+        final TransferPool transfers = new TransferPool(settings.getTransferParallelism());
+        NoteWriteBatch writes = null;
+        DriveOutbox outbox = null;
+        DriveUploadBatch uploads = null;
+        try {
+            final long uploadStart = SyncStats.now();
+            // send local deletes and renames first, renames update the drive
+            // versions the uploads are conditional on
+            outbox = new DriveOutbox(drive, retries, cr, settings.getUploadBatchSize());
+            outbox.drain();
+            syncResult.stats.numConflictDetectedExceptions += outbox.getConflictCount();
+            if (outbox.getFailureCount() > 0) {
+                Log.w(TAG, outbox.getFailureCount() + " deletes or renames were refused");
+            }
+
+            // loop over new and locally edited notes and push them to drive
+            final ResumableUpload resumable = new ResumableUpload(drive,
+                    mContext.getSharedPreferences(HomeActivity.KEY_PREFS, Context.MODE_PRIVATE),
+                    settings.getUploadChunkSize());
+            uploads = new DriveUploadBatch(drive, retries, cr, transfers, resumable,
+                    SyncJournal.load(cr), NOTE_MIME_TYPE, settings.getUploadBatchSize());
+            // before anything is read for upload, so notes an earlier sync
+            // did upload aren't sent again
+            uploads.recoverPending();
+            // notes with an open conflict are skipped, including those the
+            // outbox has just found, or they would conflict again
+            final HashSet<Long> conflicted = getConflictedNotes(cr);
+            Cursor savedNotes = cr.query(NotesProvider.CONTENT_URI, NotesSyncQuery.PROJECTION,
+                    NotesSyncQuery.SELECTION, null, null);
+            try {
+                while (savedNotes.moveToNext()) {
+                    final long id = savedNotes.getLong(NotesSyncQuery.ID);
+                    if (conflicted.contains(id)) {
+                        continue;
+                    }
+                    // notes not in drive yet are created there, the others
+                    // have their content updated
+                    final String driveId = savedNotes.getString(NotesSyncQuery.DRIVE_ID);
+                    uploads.add(id,
+                            TextUtils.isEmpty(driveId) ? null : driveId,
+                            savedNotes.getString(NotesSyncQuery.ETAG),
+                            savedNotes.getString(NotesSyncQuery.TITLE),
+                            savedNotes.getString(NotesSyncQuery.BODY),
+                            savedNotes.getLong(NotesSyncQuery.LAST_MODIFIED),
+                            savedNotes.getInt(NotesSyncQuery.BODY_DIRTY) != 0);
+                }
+            } finally {
+                savedNotes.close();
+            }
+            uploads.flush();
+            stats.addTime(SyncStats.PHASE_UPLOAD, uploadStart);
+            syncResult.stats.numConflictDetectedExceptions += uploads.getConflictCount();
+            if (uploads.getConflictCount() > 0) {
+                Log.w(TAG, uploads.getConflictCount()
+                        + " notes changed in drive and were not uploaded");
+            }
+
+            // index the synced notes once, so remote files can be matched
+            // without a query each
+            final long reconcileStart = SyncStats.now();
+            final LocalNoteIndex localNotes = LocalNoteIndex.load(cr);
+            writes = new NoteWriteBatch(cr, localNotes, settings.getWriteBatchSize());
+
+            // pull remote changes, either incrementally from the last change
+            // we saw or with a full listing the first time round
+            final SharedPreferences prefs = mContext.getSharedPreferences(HomeActivity.KEY_PREFS,
+                    Context.MODE_PRIVATE);
+            final String changeIdKey = PREF_LARGEST_CHANGE_ID + syncAccountName;
+            final long largestChangeId;
+            if (prefs.contains(changeIdKey)) {
+                largestChangeId = syncChanges(drive, transfers, localNotes, writes, stats,
+                        prefs.getLong(changeIdKey, 0));
+            } else {
+                largestChangeId = syncAllFiles(drive, transfers, localNotes, writes, stats);
+            }
+            // what the listing and the batches written meanwhile didn't take
+            stats.addTime(SyncStats.PHASE_RECONCILE, reconcileStart
+                    + stats.getTime(SyncStats.PHASE_LIST) + writes.getCommitTime());
+
+            // the last downloads and writes, plus the batches written so far
+            final long commitStart = SyncStats.now() - writes.getCommitTime();
+            transfers.drain();
+            writes.flush();
+            stats.addTime(SyncStats.PHASE_COMMIT, commitStart);
+
+            // only move past these changes if every note made it across,
+            // otherwise the failed ones are picked up again next time
+            if (transfers.getFailures().isEmpty() && writes.getFailureCount() == 0) {
+                prefs.edit().putLong(changeIdKey, largestChangeId).commit();
+            } else {
+                Log.w(TAG, transfers.getFailures().size()
+                        + " note transfers failed");
+                for (TransferPool.Transfer<?> failed : transfers.getFailures()) {
+                    countError(syncResult, failed.getError());
+                }
+                if (writes.getFailureCount() > 0) {
+                    syncResult.stats.numIoExceptions++;
+                }
+            }
+
+        } catch (IOException e) {
+            Log.e(TAG, "Sync failed", e);
+            countError(syncResult, e);
+        } finally {
+            transfers.shutdown();
+            stats.setRetries(retries.getRetryCount());
+            if (outbox != null) {
+                stats.addRowsWritten(outbox.getWriteCount());
+            }
+            if (uploads != null) {
+                stats.addRowsWritten(uploads.getWriteCount());
+            }
+            if (writes != null) {
+                stats.addRowsWritten(writes.getWriteCount());
+            }
+        }
+    }
+
+    /**
+     * Counts a failed request in the sync result, as a soft error if it may
+     * pass, which the sync framework retries later with backoff, or as a hard
+     * error if drive refused it.
+     */
+    private static void countError(SyncResult syncResult, Exception e) {
+        if (e instanceof CircuitBreaker.CircuitOpenException) {
+            // no point in the framework trying before the breaker closes
+            syncResult.stats.numIoExceptions++;
+            syncResult.delayUntil = Math.max(syncResult.delayUntil,
+                    ((CircuitBreaker.CircuitOpenException) e).getRetryTime() / 1000);
+        } else if (e instanceof HttpResponseException && ((HttpResponseException) e)
+                .getStatusCode() == HttpStatusCodes.STATUS_CODE_UNAUTHORIZED) {
+            syncResult.stats.numAuthExceptions++;
+        } else if (RetryPolicy.isRetryable(e)) {
+            syncResult.stats.numIoExceptions++;
+        } else {
+            // the closest hard error there is: making the same request
+            // again won't help
+            syncResult.stats.numParseExceptions++;
+        }
+    }
+
+    /**
+     * Reconciles every file in drive with the local notes. Used when we have no
+     * record of a previous sync for this account.
+     * 
+     * @return the largest change id at the time of the listing
+     */
+    private long syncAllFiles(Drive drive, TransferPool transfers, LocalNoteIndex localNotes,
+            NoteWriteBatch writes, SyncStats stats) throws IOException {
+        // read the change id before listing so that nothing made during the
+        // listing is missed by the next incremental sync
+        long listStart = SyncStats.now();
+        final long largestChangeId = drive.about().get().setFields("largestChangeId").execute()
+                .getLargestChangeId();
+
+        // loop over all files in drive and see if any need to be
+        // synced locally
+        DriveFileIterator driveFiles = new DriveFileIterator(drive,
+                new SyncSettings(mContext).getListPageSize());
+        // pages are fetched as the iterator runs out
+        while (driveFiles.hasNext()) {
+            stats.addTime(SyncStats.PHASE_LIST, listStart);
+            final File remote = driveFiles.next();
+            if (remote.getLabels().getTrashed()) {
+                // skip deleted files
+                continue;
+            }
+            syncRemoteFile(drive, transfers, localNotes, writes, stats, remote);
+            listStart = SyncStats.now();
+        }
+        stats.addTime(SyncStats.PHASE_LIST, listStart);
+        return largestChangeId;
+    }
+
+    /**
+     * Applies the drive changes feed since the given change id to the local
+     * notes, including remote deletions and trashing.
+     * 
+     * @return the largest change id seen, to be passed to the next sync
+     */
+    private long syncChanges(Drive drive, TransferPool transfers, LocalNoteIndex localNotes,
+            NoteWriteBatch writes, SyncStats stats, long lastChangeId) throws IOException {
+        long largestChangeId = lastChangeId;
+        final int pageSize = new SyncSettings(mContext).getListPageSize();
+        String pageToken = null;
+        do {
+            final long listStart = SyncStats.now();
+            ChangeList changes = drive.changes().list()
+                    .setStartChangeId(BigInteger.valueOf(lastChangeId + 1))
+                    .setIncludeDeleted(true).setMaxResults(pageSize).setPageToken(pageToken)
+                    .setFields(CHANGE_LIST_FIELDS).execute();
+            stats.addTime(SyncStats.PHASE_LIST, listStart);
+            if (changes.getItems() != null) {
+                for (Change change : changes.getItems()) {
+                    final File remote = change.getFile();
+                    final boolean deleted = Boolean.TRUE.equals(change.getDeleted())
+                            || remote == null
+                            || (remote.getLabels() != null && Boolean.TRUE.equals(remote
+                                    .getLabels().getTrashed()));
+                    if (deleted) {
+                        // removed or trashed in drive - remove it locally,
+                        // once any download of it has landed, unless it was
+                        // edited here since
+                        if (transfers.isPending(change.getFileId())) {
+                            transfers.drain();
+                        }
+                        writes.deleteByDriveId(change.getFileId());
+                    } else {
+                        syncRemoteFile(drive, transfers, localNotes, writes, stats, remote);
+                    }
+                }
+            }
+            if (changes.getLargestChangeId() != null) {
+                largestChangeId = Math.max(largestChangeId, changes.getLargestChangeId()
+                        .longValue());
+            }
+            pageToken = changes.getNextPageToken();
+        } while (!TextUtils.isEmpty(pageToken));
+        return largestChangeId;
+    }
+
+    /**
+     * Brings the local note for a single drive file up to date, downloading
+     * the body only if drive has a different one. Notes changed on both sides
+     * are recorded as conflicts and left as they are.
+     */
+    private void syncRemoteFile(final Drive drive, TransferPool transfers,
+            LocalNoteIndex localNotes, final NoteWriteBatch writes, final SyncStats stats,
+            final File remote) {
+        if (transfers.isPending(remote.getId())) {
+            // seen again while it is being downloaded - let that land first
+            transfers.drain();
+        }
+        final LocalNoteIndex.Entry local = localNotes.get(remote.getId());
+        if (local == null) {
+            // exists in drive but not locally Ð download it
+            transfers.submit(new TransferPool.Transfer<String>(remote.getId()) {
+                @Override
+                protected String transfer() throws IOException {
+                    final long start = SyncStats.now();
+                    try {
+                        return getFileContents(drive, remote.getDownloadUrl(),
+                                getFileSize(remote), stats.getBytes());
+                    } finally {
+                        stats.addTime(SyncStats.PHASE_DOWNLOAD, start);
+                    }
+                }
+
+                @Override
+                protected void commit(String body) {
+                    final ContentValues cv = getRemoteValues(remote);
+                    cv.put(NotesProvider.KEY_BODY, body);
+                    cv.put(NotesProvider.KEY_DRIVE_ID, remote.getId());
+                    writes.insert(cv);
+                }
+            });
+        } else if (remote.getEtag() != null && remote.getEtag().equals(local.etag)) {
+            // unchanged since the last sync
+        } else if (local.dirty) {
+            // edited on both sides - keep the local edits and flag the note
+            writes.recordConflict(local.id, remote.getId(), remote.getEtag());
+        } else if (remote.getMd5Checksum() != null && remote.getMd5Checksum().equals(local.md5)) {
+            // only the metadata changed, the body we have is current
+            writes.updateByDriveId(remote.getId(), getRemoteValues(remote));
+        } else {
+            transfers.submit(new TransferPool.Transfer<String>(remote.getId()) {
+                @Override
+                protected String transfer() throws IOException {
+                    final long start = SyncStats.now();
+                    try {
+                        return getFileContents(drive, remote.getDownloadUrl(),
+                                getFileSize(remote), stats.getBytes());
+                    } finally {
+                        stats.addTime(SyncStats.PHASE_DOWNLOAD, start);
+                    }
+                }
+
+                @Override
+                protected void commit(String body) {
+                    final ContentValues cv = getRemoteValues(remote);
+                    if (body != null) {
+                        cv.put(NotesProvider.KEY_BODY, body);
+                    }
+                    writes.updateByDriveId(remote.getId(), cv);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the ids of the notes with an open conflict, which are left as
+     *         they are until it is resolved
+     */
+    private static HashSet<Long> getConflictedNotes(ContentResolver cr) {
+        final HashSet<Long> ids = new HashSet<Long>();
+        final Cursor c = cr.query(NotesProvider.CONFLICTS_URI, new String[] {
+                NotesProvider.KEY_NOTE_ID
+        }, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return ids;
+    }
+
+    /**
+     * @return the note values taken from a drive file's metadata
+     */
+    private static ContentValues getRemoteValues(File remote) {
+        final ContentValues cv = new ContentValues();
+        cv.put(NotesProvider.KEY_TITLE, remote.getTitle());
+        cv.put(NotesProvider.KEY_LAST_MODIFIED, remote.getModifiedDate().getValue());
+        cv.put(NotesProvider.KEY_ETAG, remote.getEtag());
+        cv.put(NotesProvider.KEY_MD5, remote.getMd5Checksum());
+        return cv;
+    }
+
+    private static long getFileSize(File remote) {
+        return remote.getFileSize() != null ? remote.getFileSize() : -1;
+    }
+
+    /**
+     * @param sizeHint the size of the file in bytes, or -1 if unknown
+     * @param counter counts the bytes downloaded
+     * @return the file's contents, or null if it has none
+     */
+    private String getFileContents(Drive drive, String downloadUrl, long sizeHint,
+            ByteCounter counter) throws IOException {
+        if (!TextUtils.isEmpty(downloadUrl)) {
+            HttpRequest request = drive.getRequestFactory().buildGetRequest(
+                    new GenericUrl(downloadUrl));
+            HttpResponse resp = request.execute();
+
+            // decode as the bytes arrive instead of collecting them first
+            ByteCounter.CountingInputStream in = null;
+            try {
+                in = new ByteCounter.CountingInputStream(resp.getContent());
+                return NoteContentReader.get().read(in, sizeHint);
+            } finally {
+                if (in != null) {
+                    in.close();
+                    // the response is unzipped as it is read, only the
+                    // content length tells what came over the wire
+                    final Long wireLength = resp.getHeaders().getContentLength();
+                    counter.addReceived(in.count, wireLength != null ? wireLength : in.count);
+                }
+            }
+        }
+        return null;
+    }
+
+    private interface NotesSyncQuery {
+
+        final static String SELECTION = NotesProvider.KEY_DRIVE_ID + " IS NULL OR "
+                + NotesProvider.KEY_DIRTY + "=1";
+
+        final static String[] PROJECTION = {
+                NotesProvider.KEY_ID, NotesProvider.KEY_TITLE, NotesProvider.KEY_BODY,
+                NotesProvider.KEY_DRIVE_ID, NotesProvider.KEY_LAST_MODIFIED, NotesProvider.KEY_ETAG,
+                NotesProvider.KEY_BODY_DIRTY
+        };
+
+        final static int ID = 0;
+        final static int TITLE = 1;
+        final static int BODY = 2;
+        final static int DRIVE_ID = 3;
+        final static int LAST_MODIFIED = 4;
+        final static int ETAG = 5;
+        final static int BODY_DIRTY = 6;
+    }
+
+}
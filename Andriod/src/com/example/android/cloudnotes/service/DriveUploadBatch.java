@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.google.api.client.googleapis.GoogleHeaders;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpMethod;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.MultipartRelatedContent;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uploads new and locally edited notes to drive in groups. Each group is sent
+ * as one drive HTTP batch request and the resulting provider writes (drive ids
+ * of new notes, cleared dirty flags) are applied in a single transaction.
+ * <p>
+ * Drive cannot take uploads in a batch, so notes with a body are sent
+ * individually on a {@link TransferPool} while the batch for the group is in
+ * flight, each as a single multipart request carrying both metadata and body.
+ * Only metadata requests share the batch round trip: new notes with an empty
+ * body, and notes that were only renamed, which are patched without sending
+ * their body again.
+ * Notes too large for a single upload chunk go through a
+ * {@link ResumableUpload}, so they can continue where an earlier attempt
+ * stopped.
+ * <p>
+ * Updates are made conditional on the drive version the note was last synced
+ * with, so a note changed in drive since is recorded as a conflict instead of
+ * being overwritten. New notes are recorded in the {@link SyncJournal} before
+ * they are sent, see {@link #recoverPending()}.
+ */
+public class DriveUploadBatch {
+
+    private static final String TAG = "DriveUploadBatch";
+
+    // partial response selector for uploaded files
+    private static final String UPLOADED_FIELDS = "id,etag,md5Checksum";
+
+    // not in HttpStatusCodes
+    private static final int STATUS_CODE_PRECONDITION_FAILED = 412;
+
+    private static final Uri CONFLICTS_SYNC_URI = NotesProvider
+            .asSyncAdapter(NotesProvider.CONFLICTS_URI);
+
+    private final Drive mDrive;
+
+    private final RetryPolicy mRetries;
+
+    private final ContentResolver mResolver;
+
+    private final TransferPool mTransfers;
+
+    private final ResumableUpload mResumable;
+
+    private final SyncJournal mJournal;
+
+    private final String mMimeType;
+
+    private final int mBatchSize;
+
+    private final JsonObjectParser mParser;
+
+    private GenericUrl mBatchUrl;
+
+    private final List<PendingNote> mPending = new ArrayList<PendingNote>();
+
+    private final ArrayList<ContentProviderOperation> mWrites = new ArrayList<ContentProviderOperation>();
+
+    private int mFailures = 0;
+
+    private int mConflicts = 0;
+
+    private int mWriteCount = 0;
+
+    public DriveUploadBatch(Drive drive, RetryPolicy retries, ContentResolver resolver,
+            TransferPool transfers, ResumableUpload resumable, SyncJournal journal,
+            String mimeType, int batchSize) {
+        mDrive = drive;
+        mRetries = retries;
+        mResolver = resolver;
+        mTransfers = transfers;
+        mResumable = resumable;
+        mJournal = journal;
+        mMimeType = mimeType;
+        mBatchSize = Math.max(1, batchSize);
+        mParser = new JsonObjectParser(drive.getJsonFactory());
+    }
+
+    /**
+     * Overrides the endpoint batch requests are posted to, e.g. to point at a
+     * local fake server.
+     */
+    public DriveUploadBatch setBatchUrl(GenericUrl batchUrl) {
+        mBatchUrl = batchUrl;
+        return this;
+    }
+
+    /**
+     * Queue a note for upload, sending the current group once it is full.
+     * 
+     * @param driveId the id of the note's drive file, or null if the note is
+     *            new and has to be created in drive
+     * @param etag the drive version the note was last synced with, if known;
+     *            the update fails with a conflict if drive has moved on
+     * @param lastModified the note's modification time as read; its dirty flag
+     *            is only cleared if it has not been edited again since
+     * @param bodyDirty false if only the title of a note in drive changed
+     */
+    public void add(long noteId, String driveId, String etag, String title, String body,
+            long lastModified, boolean bodyDirty) throws IOException {
+        mPending.add(new PendingNote(noteId, driveId,
+                driveId == null ? mJournal.getClientId(noteId) : null, etag, title, body,
+                lastModified, bodyDirty));
+        if (mPending.size() >= mBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Settles the uploads of new notes that earlier syncs started but did not
+     * save. Notes whose file made it to drive are linked to it, files made
+     * for notes deleted since are removed, as are the entries of deleted
+     * notes that never made it, and the others are left to be uploaded again
+     * under the same client id.
+     */
+    public void recoverPending() throws IOException {
+        for (SyncJournal.Entry entry : mJournal.getPending()) {
+            final File uploaded = SyncJournal.find(mDrive, entry.clientId, UPLOADED_FIELDS);
+            final boolean exists = noteExists(entry.noteId);
+            if (uploaded == null) {
+                if (!exists) {
+                    mWrites.add(mJournal.newCommit(entry.noteId));
+                }
+                continue;
+            }
+            Log.i(TAG, "Found the earlier upload of note " + entry.noteId);
+            if (exists) {
+                saveUploaded(new PendingNote(entry.noteId, null, entry.clientId, null, null,
+                        null, entry.lastModified, true), uploaded);
+            } else {
+                try {
+                    mDrive.files().delete(uploaded.getId()).execute();
+                } catch (HttpResponseException e) {
+                    if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+                        throw e;
+                    }
+                }
+                mWrites.add(mJournal.newCommit(entry.noteId));
+            }
+        }
+        commitWrites();
+    }
+
+    private boolean noteExists(long noteId) {
+        Cursor c = mResolver.query(ContentUris.withAppendedId(NotesProvider.CONTENT_URI, noteId),
+                new String[] {
+                    NotesProvider.KEY_ID
+                }, null, null, null);
+        try {
+            return c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Upload any queued notes and commit the results.
+     */
+    public void flush() throws IOException {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        journalNewNotes();
+        BatchRequest batch = mRetries.newBatch(mDrive);
+        if (mBatchUrl != null) {
+            batch.setBatchUrl(mBatchUrl);
+        }
+        try {
+            for (final PendingNote note : mPending) {
+                final File metadata = new File();
+                metadata.setTitle(note.title);
+                metadata.setMimeType(mMimeType);
+                if (note.clientId != null) {
+                    SyncJournal.setClientId(metadata, note.clientId);
+                }
+
+                if (note.driveId == null && TextUtils.isEmpty(note.body)) {
+                    mDrive.files().insert(metadata).setFields(UPLOADED_FIELDS)
+                            .queue(batch, new MetadataCallback(note));
+                } else if (note.driveId != null && !note.bodyDirty) {
+                    // renamed only - the body in drive is still current
+                    final File renamed = new File();
+                    renamed.setTitle(note.title);
+                    final Drive.Files.Patch patch = mDrive.files().patch(note.driveId, renamed);
+                    if (note.etag != null) {
+                        final GoogleHeaders ifMatch = new GoogleHeaders();
+                        ifMatch.setIfMatch(note.etag);
+                        patch.setRequestHeaders(ifMatch);
+                    }
+                    patch.setFields(UPLOADED_FIELDS).queue(batch, new MetadataCallback(note));
+                } else {
+                    mTransfers.submit(new TransferPool.Transfer<File>(String.valueOf(note.id)) {
+                        @Override
+                        protected File transfer() throws IOException {
+                            final byte[] bytes = (note.body != null ? note.body : "")
+                                    .getBytes("UTF-8");
+                            try {
+                                if (mResumable.isChunked(bytes.length)) {
+                                    return mResumable.upload(note.id, note.lastModified,
+                                            note.driveId, note.etag, metadata, UPLOADED_FIELDS,
+                                            mMimeType, bytes);
+                                }
+                                return upload(note, metadata, bytes);
+                            } catch (HttpResponseException e) {
+                                if (e.getStatusCode() != STATUS_CODE_PRECONDITION_FAILED) {
+                                    throw e;
+                                }
+                                return null;
+                            }
+                        }
+
+                        @Override
+                        protected void commit(File uploaded) {
+                            if (uploaded != null) {
+                                saveUploaded(note, uploaded);
+                            } else {
+                                saveConflict(note);
+                            }
+                        }
+                    });
+                }
+            }
+            if (batch.size() > 0) {
+                mRetries.execute(batch);
+            }
+        } finally {
+            mTransfers.drain();
+            // commit whatever made it to drive, even if part of the group
+            // failed
+            mPending.clear();
+            commitWrites();
+        }
+    }
+
+    /**
+     * Creates or updates the note's file with one multipart request. The
+     * drive client's media upload would open a resumable session first, a
+     * second round trip, and its direct mode drops the If-Match header.
+     */
+    private File upload(PendingNote note, File metadata, byte[] bytes) throws IOException {
+        final GenericUrl url = new GenericUrl(mDrive.getBaseUrl() + "files"
+                + (note.driveId != null ? "/" + note.driveId : ""));
+        url.setRawPath("/upload" + url.getRawPath());
+        url.put("uploadType", "multipart");
+        url.put("fields", UPLOADED_FIELDS);
+
+        final HttpRequest request = mDrive.getRequestFactory().buildRequest(
+                note.driveId != null ? HttpMethod.PUT : HttpMethod.POST, url,
+                new MultipartRelatedContent(new JsonHttpContent(mDrive.getJsonFactory(),
+                        metadata), new ByteArrayContent(mMimeType, bytes)));
+        if (note.etag != null) {
+            request.getHeaders().setIfMatch(note.etag);
+        }
+        // this drive library leaves getJsonObjectParser() unset
+        request.setParser(mParser);
+        return request.execute().parseAs(File.class);
+    }
+
+    /**
+     * @return the number of notes drive refused to create or patch so far
+     */
+    public int getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * @return the number of notes not uploaded because they changed in drive
+     */
+    public int getConflictCount() {
+        return mConflicts;
+    }
+
+    /**
+     * @return the number of note rows written after uploads so far
+     */
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    private void saveUploaded(PendingNote note, File uploaded) {
+        final Uri noteUri = NotesProvider.asSyncAdapter(ContentUris.withAppendedId(
+                NotesProvider.CONTENT_URI, note.id));
+        // always record the drive id and version, or the note would be
+        // created again or conflict with its own upload
+        final ContentProviderOperation.Builder saved = ContentProviderOperation
+                .newUpdate(noteUri).withValue(NotesProvider.KEY_ETAG, uploaded.getEtag())
+                .withValue(NotesProvider.KEY_MD5, uploaded.getMd5Checksum());
+        if (note.driveId == null) {
+            saved.withValue(NotesProvider.KEY_DRIVE_ID, uploaded.getId());
+            mWrites.add(mJournal.newCommit(note.id));
+        }
+        mWrites.add(saved.build());
+        mWrites.add(ContentProviderOperation.newUpdate(noteUri)
+                .withValue(NotesProvider.KEY_DIRTY, 0)
+                .withValue(NotesProvider.KEY_BODY_DIRTY, 0)
+                .withSelection(NotesProvider.KEY_LAST_MODIFIED + "=?", new String[] {
+                    String.valueOf(note.lastModified)
+                }).build());
+    }
+
+    private void saveConflict(PendingNote note) {
+        // the note stays dirty, so its edits are kept until resolved
+        Log.w(TAG, "Note " + note.id + " changed in drive since it was last synced");
+        mConflicts++;
+        mWrites.add(ContentProviderOperation.newInsert(CONFLICTS_SYNC_URI)
+                .withValue(NotesProvider.KEY_NOTE_ID, note.id)
+                .withValue(NotesProvider.KEY_DRIVE_ID, note.driveId)
+                .withValue(NotesProvider.KEY_DETECTED, System.currentTimeMillis()).build());
+    }
+
+    /**
+     * Records the new notes of the group in the journal before any of them is
+     * sent.
+     */
+    private void journalNewNotes() throws IOException {
+        final ArrayList<ContentProviderOperation> intents =
+                new ArrayList<ContentProviderOperation>();
+        for (PendingNote note : mPending) {
+            if (note.clientId != null) {
+                intents.add(mJournal.newIntent(note.id, note.clientId, note.lastModified));
+            }
+        }
+        if (intents.isEmpty()) {
+            return;
+        }
+        try {
+            mResolver.applyBatch(NotesProvider.CONTENT_AUTHORITY, intents);
+        } catch (RemoteException e) {
+            throw new IOException("Failed to journal new notes", e);
+        } catch (OperationApplicationException e) {
+            throw new IOException("Failed to journal new notes", e);
+        }
+    }
+
+    private void commitWrites() {
+        if (mWrites.isEmpty()) {
+            return;
+        }
+        try {
+            mWriteCount += mResolver.applyBatch(NotesProvider.CONTENT_AUTHORITY, mWrites).length;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to save uploaded notes", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Failed to save uploaded notes", e);
+        } finally {
+            mWrites.clear();
+        }
+    }
+
+    /**
+     * Saves the result of a batched metadata request.
+     */
+    private class MetadataCallback extends JsonBatchCallback<File> {
+
+        private final PendingNote mNote;
+
+        MetadataCallback(PendingNote note) {
+            mNote = note;
+        }
+
+        @Override
+        public void onSuccess(File uploaded, GoogleHeaders headers) {
+            saveUploaded(mNote, uploaded);
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError error, GoogleHeaders headers) {
+            if (error.getCode() == STATUS_CODE_PRECONDITION_FAILED) {
+                saveConflict(mNote);
+            } else {
+                // leave the note as it is so the next sync retries it
+                Log.w(TAG, "Failed to upload note " + mNote.id + ": " + error.getMessage());
+                mFailures++;
+            }
+        }
+    }
+
+    private static class PendingNote {
+
+        final long id;
+        final String driveId;
+        // marks the file a new note is created as, null for notes in drive
+        final String clientId;
+        final String etag;
+        final String title;
+        final String body;
+        final long lastModified;
+        final boolean bodyDirty;
+
+        PendingNote(long id, String driveId, String clientId, String etag, String title,
+                String body, long lastModified, boolean bodyDirty) {
+            this.id = id;
+            this.driveId = driveId;
+            this.clientId = clientId;
+            this.etag = etag;
+            this.title = title;
+            this.body = body;
+            this.lastModified = lastModified;
+            this.bodyDirty = bodyDirty;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import com.google.api.client.http.HttpContent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends a request body gzip encoded, counting its size before and after
+ * compression. Used instead of {@code HttpRequest.setEnableGZipContent} so
+ * the bytes that actually go over the wire are known.
+ */
+class GzipContent implements HttpContent {
+
+    private final HttpContent mContent;
+
+    private final ByteCounter mCounter;
+
+    GzipContent(HttpContent content, ByteCounter counter) {
+        mContent = content;
+        mCounter = counter;
+    }
+
+    @Override
+    public long getLength() {
+        // not known until compressed, sent chunked
+        return -1;
+    }
+
+    @Override
+    public String getEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    public String getType() {
+        return mContent.getType();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final ByteCounter.CountingOutputStream wire = new ByteCounter.CountingOutputStream(out);
+        final GZIPOutputStream gzip = new GZIPOutputStream(wire);
+        final ByteCounter.CountingOutputStream content = new ByteCounter.CountingOutputStream(gzip);
+        mContent.writeTo(content);
+        // finish rather than close, the transport owns the stream
+        gzip.finish();
+        wire.flush();
+        mCounter.addSent(content.count, wire.count);
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return mContent.retrySupported();
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+
+import java.util.HashMap;
+
+/**
+ * An in-memory index of the local notes that are already in drive, keyed on
+ * their drive id. It is loaded with a single provider query so remote files can
+ * be reconciled without a lookup per file.
+ */
+public class LocalNoteIndex {
+
+    /**
+     * The local state of a note that has a drive id.
+     */
+    public static class Entry {
+
+        public final long id;
+        public final long lastModified;
+        // drive version the note was last synced with, may be null
+        public final String etag;
+        public final String md5;
+        // true if the note has local edits that are not in drive yet
+        public final boolean dirty;
+
+        public Entry(long id, long lastModified, String etag, String md5, boolean dirty) {
+            this.id = id;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.md5 = md5;
+            this.dirty = dirty;
+        }
+    }
+
+    private final HashMap<String, Entry> mByDriveId;
+
+    private LocalNoteIndex(int capacity) {
+        mByDriveId = new HashMap<String, Entry>(capacity * 4 / 3 + 1);
+    }
+
+    /**
+     * Read the drive id, row id, modification time and drive version of every
+     * synced note.
+     */
+    public static LocalNoteIndex load(ContentResolver cr) {
+        Cursor c = null;
+        try {
+            c = cr.query(NotesProvider.CONTENT_URI, IndexQuery.PROJECTION,
+                    NotesProvider.KEY_DRIVE_ID + " IS NOT NULL", null, null);
+            LocalNoteIndex index = new LocalNoteIndex(c.getCount());
+            if (c.moveToFirst()) {
+                do {
+                    index.put(c.getString(IndexQuery.DRIVE_ID), new Entry(c.getLong(IndexQuery.ID),
+                            c.getLong(IndexQuery.LAST_MODIFIED), c.getString(IndexQuery.ETAG),
+                            c.getString(IndexQuery.MD5), c.getInt(IndexQuery.DIRTY) != 0));
+                } while (c.moveToNext());
+            }
+            return index;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * @return the local note for the given drive id, or null if there is none
+     */
+    public Entry get(String driveId) {
+        return mByDriveId.get(driveId);
+    }
+
+    public void put(String driveId, Entry entry) {
+        mByDriveId.put(driveId, entry);
+    }
+
+    public Entry remove(String driveId) {
+        return mByDriveId.remove(driveId);
+    }
+
+    public int size() {
+        return mByDriveId.size();
+    }
+
+    private interface IndexQuery {
+
+        final static String[] PROJECTION = {
+                NotesProvider.KEY_ID, NotesProvider.KEY_DRIVE_ID, NotesProvider.KEY_LAST_MODIFIED,
+                NotesProvider.KEY_ETAG, NotesProvider.KEY_MD5, NotesProvider.KEY_DIRTY
+        };
+
+        final static int ID = 0;
+        final static int DRIVE_ID = 1;
+        final static int LAST_MODIFIED = 2;
+        final static int ETAG = 3;
+        final static int MD5 = 4;
+        final static int DIRTY = 5;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes downloaded note bodies straight from the response stream. The byte
+ * buffer, the UTF-8 decoder and the decoded characters are reused from one
+ * download to the next, so reading a note allocates little more than the
+ * resulting string. Each transfer thread has a reader of its own, see
+ * {@link #get()}.
+ */
+public class NoteContentReader {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    // character buffers grown past this for a large note are dropped after
+    // use instead of being kept for the next one
+    private static final int MAX_RETAINED_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<NoteContentReader> sReaders = new ThreadLocal<NoteContentReader>() {
+        @Override
+        protected NoteContentReader initialValue() {
+            return new NoteContentReader();
+        }
+    };
+
+    private final CharsetDecoder mDecoder = Charset.forName("UTF-8").newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final ByteBuffer mBytes = ByteBuffer.allocate(CHUNK_SIZE);
+
+    private CharBuffer mChars = CharBuffer.allocate(CHUNK_SIZE);
+
+    private NoteContentReader() {
+    }
+
+    /**
+     * @return the reader for the calling thread
+     */
+    public static NoteContentReader get() {
+        return sReaders.get();
+    }
+
+    /**
+     * Reads and decodes the whole stream. The stream is not closed.
+     *
+     * @param sizeHint the length of the content in bytes if known, or -1; used
+     *            to size the decoded text up front
+     */
+    public String read(InputStream in, long sizeHint) throws IOException {
+        CharBuffer out = mChars;
+        // UTF-8 never decodes to more characters than it has bytes
+        if (sizeHint > out.capacity()) {
+            out = CharBuffer.allocate((int) Math.min(sizeHint, Integer.MAX_VALUE));
+        }
+        out.clear();
+        mBytes.clear();
+        mDecoder.reset();
+        try {
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                final int read = in.read(mBytes.array(), mBytes.position(), mBytes.remaining());
+                if (read < 0) {
+                    endOfInput = true;
+                } else {
+                    mBytes.position(mBytes.position() + read);
+                }
+                mBytes.flip();
+                while (mDecoder.decode(mBytes, out, endOfInput) == CoderResult.OVERFLOW) {
+                    out = grow(out);
+                }
+                // keeps the start of a character split across reads
+                mBytes.compact();
+            }
+            while (mDecoder.flush(out) == CoderResult.OVERFLOW) {
+                out = grow(out);
+            }
+            out.flip();
+            return out.toString();
+        } finally {
+            if (out.capacity() <= MAX_RETAINED_CHARS) {
+                mChars = out;
+            }
+        }
+    }
+
+    private static CharBuffer grow(CharBuffer chars) {
+        final CharBuffer grown = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        grown.put(chars);
+        return grown;
+    }
+
+}
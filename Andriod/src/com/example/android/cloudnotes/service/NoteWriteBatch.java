@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+
+import java.util.ArrayList;
+
+/**
+ * Collects the provider writes made while reconciling remote files and applies
+ * them as one provider batch, so a sync commits many rows per transaction
+ * instead of one. The {@link LocalNoteIndex} is kept up to date as writes are
+ * queued.
+ */
+public class NoteWriteBatch {
+
+    private static final String TAG = "NoteWriteBatch";
+
+    // row id recorded in the index for notes whose insert is still queued
+    private static final long UNKNOWN_ID = -1;
+
+    private static final Uri SYNC_URI = NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI);
+
+    private static final Uri CONFLICTS_SYNC_URI = NotesProvider
+            .asSyncAdapter(NotesProvider.CONFLICTS_URI);
+
+    private final ContentResolver mResolver;
+
+    private final LocalNoteIndex mIndex;
+
+    private final int mBatchSize;
+
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<ContentProviderOperation>();
+
+    // drive id of each queued insert, null for other operations
+    private final ArrayList<String> mInsertedDriveIds = new ArrayList<String>();
+
+    private int mFailures = 0;
+
+    private int mWriteCount = 0;
+
+    // time spent applying batches, in nanoseconds
+    private long mCommitTime = 0;
+
+    public NoteWriteBatch(ContentResolver resolver, LocalNoteIndex index, int batchSize) {
+        mResolver = resolver;
+        mIndex = index;
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Queue the insert of a note downloaded from drive.
+     */
+    public void insert(ContentValues values) {
+        final String driveId = values.getAsString(NotesProvider.KEY_DRIVE_ID);
+        mIndex.put(driveId, new LocalNoteIndex.Entry(UNKNOWN_ID,
+                values.getAsLong(NotesProvider.KEY_LAST_MODIFIED),
+                values.getAsString(NotesProvider.KEY_ETAG),
+                values.getAsString(NotesProvider.KEY_MD5), false));
+        add(ContentProviderOperation.newInsert(SYNC_URI).withValues(values)
+                .withYieldAllowed(true).build(), driveId);
+    }
+
+    /**
+     * Queue an update of the note stored for a drive file. Notes edited
+     * locally in the meantime are left alone, their edits win until the next
+     * upload.
+     */
+    public void updateByDriveId(String driveId, ContentValues values) {
+        final LocalNoteIndex.Entry entry = mIndex.get(driveId);
+        if (entry == null) {
+            return;
+        }
+        final Long lastModified = values.getAsLong(NotesProvider.KEY_LAST_MODIFIED);
+        mIndex.put(driveId, new LocalNoteIndex.Entry(entry.id,
+                lastModified != null ? lastModified : entry.lastModified,
+                values.containsKey(NotesProvider.KEY_ETAG) ? values
+                        .getAsString(NotesProvider.KEY_ETAG) : entry.etag,
+                values.containsKey(NotesProvider.KEY_MD5) ? values
+                        .getAsString(NotesProvider.KEY_MD5) : entry.md5, entry.dirty));
+        add(ContentProviderOperation.newUpdate(SYNC_URI).withValues(values)
+                .withSelection(NotesProvider.KEY_DRIVE_ID + "=? AND " + NotesProvider.KEY_DIRTY
+                        + "=0", new String[] {
+                    driveId
+                }).withYieldAllowed(true).build(), null);
+    }
+
+    /**
+     * Queue a conflict record for a local note whose drive file has changed
+     * underneath it.
+     */
+    public void recordConflict(long noteId, String driveId, String remoteEtag) {
+        final ContentValues cv = new ContentValues();
+        cv.put(NotesProvider.KEY_NOTE_ID, noteId);
+        cv.put(NotesProvider.KEY_DRIVE_ID, driveId);
+        cv.put(NotesProvider.KEY_REMOTE_ETAG, remoteEtag);
+        cv.put(NotesProvider.KEY_DETECTED, System.currentTimeMillis());
+        add(ContentProviderOperation.newInsert(CONFLICTS_SYNC_URI).withValues(cv).build(), null);
+    }
+
+    /**
+     * Queue the removal of the note stored for a drive file, if there is one.
+     * A note edited locally in the meantime is kept and unlinked from the
+     * file instead, so its edits go up as a new file on the next upload; a
+     * conflict with the file is dropped along with it.
+     */
+    public void deleteByDriveId(String driveId) {
+        if (mIndex.remove(driveId) != null) {
+            final String[] selectionArgs = {
+                driveId
+            };
+            final ContentValues unlinked = new ContentValues();
+            unlinked.putNull(NotesProvider.KEY_DRIVE_ID);
+            unlinked.putNull(NotesProvider.KEY_ETAG);
+            unlinked.putNull(NotesProvider.KEY_MD5);
+            add(ContentProviderOperation.newUpdate(SYNC_URI).withValues(unlinked)
+                    .withSelection(NotesProvider.KEY_DRIVE_ID + "=? AND " + NotesProvider.KEY_DIRTY
+                            + "=1", selectionArgs).build(), null);
+            add(ContentProviderOperation.newDelete(CONFLICTS_SYNC_URI)
+                    .withSelection(NotesProvider.KEY_DRIVE_ID + "=?", selectionArgs).build(),
+                    null);
+            add(ContentProviderOperation.newDelete(SYNC_URI)
+                    .withSelection(NotesProvider.KEY_DRIVE_ID + "=? AND " + NotesProvider.KEY_DIRTY
+                            + "=0", selectionArgs).withYieldAllowed(true).build(), null);
+        }
+    }
+
+    /**
+     * Apply all queued writes.
+     */
+    public void flush() {
+        if (mOperations.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            ContentProviderResult[] results = mResolver.applyBatch(
+                    NotesProvider.CONTENT_AUTHORITY, mOperations);
+            mWriteCount += results.length;
+            for (int i = 0; i < results.length; i++) {
+                final String driveId = mInsertedDriveIds.get(i);
+                final LocalNoteIndex.Entry entry = driveId != null ? mIndex.get(driveId) : null;
+                if (entry != null) {
+                    mIndex.put(driveId, new LocalNoteIndex.Entry(ContentUris
+                            .parseId(results[i].uri), entry.lastModified, entry.etag, entry.md5,
+                            entry.dirty));
+                }
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to write synced notes", e);
+            mFailures += mOperations.size();
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Failed to write synced notes", e);
+            mFailures += mOperations.size();
+        } finally {
+            mOperations.clear();
+            mInsertedDriveIds.clear();
+            mCommitTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return the number of queued writes that could not be applied
+     */
+    public int getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * @return the number of writes applied so far
+     */
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * @return the time spent applying writes so far, in nanoseconds
+     */
+    public long getCommitTime() {
+        return mCommitTime;
+    }
+
+    private void add(ContentProviderOperation operation, String insertedDriveId) {
+        mOperations.add(operation);
+        mInsertedDriveIds.add(insertedDriveId);
+        if (mOperations.size() >= mBatchSize) {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.api.client.googleapis.GoogleHeaders;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpMethod;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import java.io.IOException;
+
+/**
+ * Uploads note contents with the drive resumable upload protocol, one chunk
+ * per request. The session uri and the number of bytes drive has acknowledged
+ * are saved after every chunk, so an upload cut off by a lost connection or a
+ * restart of the service continues from the last acknowledged byte instead of
+ * starting over.
+ */
+public class ResumableUpload {
+
+    private static final String TAG = "ResumableUpload";
+
+    /**
+     * Drive accepts chunks in multiples of this size, only the last chunk of
+     * an upload may be shorter.
+     */
+    public static final int CHUNK_GRANULARITY = 256 * 1024;
+
+    // "Resume Incomplete", not in HttpStatusCodes
+    private static final int STATUS_CODE_RESUME_INCOMPLETE = 308;
+
+    private static final int STATUS_CODE_GONE = 410;
+
+    // prefixes of the per note keys of an unfinished upload
+    private static final String PREF_SESSION = "uploadSession_";
+    private static final String PREF_OFFSET = "uploadOffset_";
+    private static final String PREF_VERSION = "uploadVersion_";
+
+    private final Drive mDrive;
+
+    private final SharedPreferences mPrefs;
+
+    private final int mChunkSize;
+
+    private final JsonObjectParser mParser;
+
+    /**
+     * @param prefs where unfinished upload sessions are kept
+     * @param chunkSize the number of bytes sent per request, a multiple of
+     *            {@link #CHUNK_GRANULARITY}
+     */
+    public ResumableUpload(Drive drive, SharedPreferences prefs, int chunkSize) {
+        mDrive = drive;
+        mPrefs = prefs;
+        mChunkSize = chunkSize;
+        mParser = new JsonObjectParser(drive.getJsonFactory());
+    }
+
+    /**
+     * @return true if content of the given size is sent in more than one chunk
+     */
+    public boolean isChunked(long length) {
+        return length > mChunkSize;
+    }
+
+    /**
+     * Creates or updates a drive file with the given content, resuming an
+     * earlier upload of the same version of the note if there is one.
+     * 
+     * @param lastModified the modification time of the note being uploaded;
+     *            a saved session for another version of the note is dropped
+     * @param driveId the file to update, or null to create one
+     * @param etag if not null, the upload fails with a 412 unless the file
+     *            still has this etag
+     * @param fields partial response selector for the uploaded file
+     */
+    public File upload(long noteId, long lastModified, String driveId, String etag,
+            File metadata, String fields, String mimeType, byte[] content) throws IOException {
+        final String key = String.valueOf(noteId);
+        final long length = content.length;
+
+        String sessionUri = null;
+        long offset = 0;
+        if (mPrefs.getLong(PREF_VERSION + key, -1) == lastModified) {
+            sessionUri = mPrefs.getString(PREF_SESSION + key, null);
+        }
+        if (sessionUri != null) {
+            // ask drive how much of the last attempt it got
+            HttpRequest request = mDrive.getRequestFactory().buildPutRequest(
+                    new GenericUrl(sessionUri), null);
+            request.getHeaders().setContentRange("bytes */" + length);
+            HttpResponse response = executeChunk(key, request);
+            if (response == null) {
+                sessionUri = null;
+            } else if (response.getStatusCode() == STATUS_CODE_RESUME_INCOMPLETE) {
+                offset = getNextOffset(response);
+                response.ignore();
+                Log.d(TAG, "Resuming upload of note " + key + " at byte " + offset + " of "
+                        + length + ", " + mPrefs.getLong(PREF_OFFSET + key, 0) + " saved");
+            } else {
+                clearSession(key);
+                return response.parseAs(File.class);
+            }
+        }
+        if (sessionUri == null) {
+            sessionUri = startSession(driveId, etag, metadata, fields, mimeType, length);
+            mPrefs.edit().putString(PREF_SESSION + key, sessionUri)
+                    .putLong(PREF_VERSION + key, lastModified).putLong(PREF_OFFSET + key, 0)
+                    .commit();
+        }
+
+        for (;;) {
+            final int chunkLength = (int) Math.min(mChunkSize, length - offset);
+            HttpRequest request = mDrive.getRequestFactory().buildPutRequest(
+                    new GenericUrl(sessionUri),
+                    new ByteArrayContent(mimeType, content, (int) offset, chunkLength));
+            request.getHeaders().setContentRange(
+                    "bytes " + offset + "-" + (offset + chunkLength - 1) + "/" + length);
+            HttpResponse response = executeChunk(key, request);
+            if (response == null) {
+                throw new IOException("Upload session of note " + key + " expired");
+            } else if (response.getStatusCode() != STATUS_CODE_RESUME_INCOMPLETE) {
+                clearSession(key);
+                return response.parseAs(File.class);
+            }
+            offset = getNextOffset(response);
+            response.ignore();
+            mPrefs.edit().putLong(PREF_OFFSET + key, offset).commit();
+        }
+    }
+
+    /**
+     * @return the session uri of a new upload
+     */
+    private String startSession(String driveId, String etag, File metadata, String fields,
+            String mimeType, long length) throws IOException {
+        final GenericUrl url = new GenericUrl(mDrive.getBaseUrl() + "files"
+                + (driveId != null ? "/" + driveId : ""));
+        url.setRawPath("/upload" + url.getRawPath());
+        url.put("uploadType", "resumable");
+        url.put("fields", fields);
+
+        HttpRequest request = mDrive.getRequestFactory().buildRequest(
+                driveId != null ? HttpMethod.PUT : HttpMethod.POST, url,
+                new JsonHttpContent(mDrive.getJsonFactory(), metadata));
+        final GoogleHeaders headers = new GoogleHeaders();
+        headers.setUploadContentType(mimeType);
+        headers.setUploadContentLength(length);
+        if (etag != null) {
+            headers.setIfMatch(etag);
+        }
+        request.setHeaders(headers);
+        HttpResponse response = request.execute();
+        try {
+            return response.getHeaders().getLocation();
+        } finally {
+            response.ignore();
+        }
+    }
+
+    /**
+     * @return the response, or null if the session has expired
+     */
+    private HttpResponse executeChunk(String key, HttpRequest request) throws IOException {
+        // this drive library leaves getJsonObjectParser() unset
+        request.setParser(mParser);
+        request.setThrowExceptionOnExecuteError(false);
+        HttpResponse response = request.execute();
+        final int status = response.getStatusCode();
+        if (status == HttpStatusCodes.STATUS_CODE_NOT_FOUND || status == STATUS_CODE_GONE) {
+            response.ignore();
+            clearSession(key);
+            return null;
+        } else if (status != STATUS_CODE_RESUME_INCOMPLETE && !response.isSuccessStatusCode()) {
+            throw new HttpResponseException(response);
+        }
+        return response;
+    }
+
+    /**
+     * @return the first byte drive has not acknowledged yet
+     */
+    private static long getNextOffset(HttpResponse response) {
+        // of the form "bytes=0-<last byte received>", absent if none were
+        final String range = response.getHeaders().getRange();
+        if (range == null) {
+            return 0;
+        }
+        return Long.parseLong(range.substring(range.lastIndexOf('-') + 1)) + 1;
+    }
+
+    private void clearSession(String key) {
+        mPrefs.edit().remove(PREF_SESSION + key).remove(PREF_OFFSET + key)
+                .remove(PREF_VERSION + key).commit();
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpMethod;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.services.drive.Drive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retries drive requests that failed for reasons likely to pass: network
+ * errors, timeouts, rate limiting and server errors. Other failures are
+ * final and reach the caller at once. Waits between attempts double each
+ * time, spread randomly so parallel transfers don't retry in step, and a
+ * Retry-After sent by drive is honored. Every failure is reported to a
+ * {@link CircuitBreaker}, which can suspend requests altogether. Requests
+ * that got no response at all are only repeated if they are idempotent, as
+ * drive may have acted on them anyway.
+ */
+public class RetryPolicy {
+
+    // not in HttpStatusCodes
+    static final int STATUS_CODE_REQUEST_TIMEOUT = 408;
+    static final int STATUS_CODE_TOO_MANY_REQUESTS = 429;
+    static final int STATUS_CODE_BAD_GATEWAY = 502;
+    static final int STATUS_CODE_GATEWAY_TIMEOUT = 504;
+
+    private final CircuitBreaker mBreaker;
+
+    private final int mMaxRetries;
+
+    private final long mInitialDelay;
+
+    private final long mMaxDelay;
+
+    private final Random mRandom = new Random();
+
+    private final AtomicInteger mRetryCount = new AtomicInteger();
+
+    // set while a batch made by this policy is executed on the thread; the
+    // batch does the waiting for its parts when it is sent again as a whole
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<Boolean>();
+
+    /**
+     * @param maxRetries how often a request is tried again at most
+     * @param initialDelay the wait in milliseconds before the first retry
+     * @param maxDelay the longest wait in milliseconds; requests that drive
+     *            asks to wait longer for are given up
+     */
+    public RetryPolicy(CircuitBreaker breaker, int maxRetries, long initialDelay, long maxDelay) {
+        mBreaker = breaker;
+        mMaxRetries = maxRetries;
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+    }
+
+    /**
+     * @return whether a request that failed with this status may succeed when
+     *         repeated
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == STATUS_CODE_REQUEST_TIMEOUT
+                || statusCode == STATUS_CODE_TOO_MANY_REQUESTS
+                || statusCode == HttpStatusCodes.STATUS_CODE_SERVER_ERROR
+                || statusCode == STATUS_CODE_BAD_GATEWAY
+                || statusCode == HttpStatusCodes.STATUS_CODE_SERVICE_UNAVAILABLE
+                || statusCode == STATUS_CODE_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * @return whether the failure may pass when the request is made again
+     *         later; only requests drive refused are final
+     */
+    public static boolean isRetryable(Exception e) {
+        if (e instanceof HttpResponseException) {
+            return isRetryable(((HttpResponseException) e).getStatusCode());
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * @return whether making a request of this method twice has the same
+     *         effect as making it once
+     */
+    static boolean isIdempotent(HttpMethod method) {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD
+                || method == HttpMethod.PUT || method == HttpMethod.PATCH
+                || method == HttpMethod.DELETE;
+    }
+
+    /**
+     * Makes the request retry under this policy. Its interceptor and
+     * unsuccessful response handler, if any, keep being called first.
+     */
+    public void install(HttpRequest request) {
+        final Attempts attempts = new Attempts(request.getInterceptor(),
+                request.getUnsuccessfulResponseHandler());
+        request.setInterceptor(attempts);
+        request.setUnsuccessfulResponseHandler(attempts);
+        // leaves room for a retry by the other handler
+        request.setNumberOfRetries(mMaxRetries + 1);
+    }
+
+    /**
+     * Returns a batch that is sent again under this policy if drive fails it
+     * as a whole. A batch is a post, so one that got no response is not; see
+     * {@link #execute(BatchRequest)}.
+     */
+    public BatchRequest newBatch(Drive drive) {
+        return drive.batch(new HttpRequestInitializer() {
+            @Override
+            public void initialize(HttpRequest request) {
+                // the batch sets an interceptor of its own, so the waits
+                // happen in the handler
+                request.setUnsuccessfulResponseHandler(new BatchAttempts());
+                request.setNumberOfRetries(mMaxRetries + 1);
+            }
+        });
+    }
+
+    /**
+     * Executes a batch made by {@link #newBatch(Drive)}.
+     */
+    public void execute(BatchRequest batch) throws IOException {
+        mBreaker.checkClosed();
+        mInBatch.set(Boolean.TRUE);
+        try {
+            batch.execute();
+        } catch (HttpResponseException e) {
+            throw e;
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            throw e;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // no response at all, which the batch doesn't retry
+            mBreaker.recordFailure();
+            throw e;
+        } finally {
+            mInBatch.remove();
+        }
+    }
+
+    /**
+     * @return the number of retries made so far
+     */
+    public int getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * @return true while a batch made by this policy is executed on the
+     *         thread, which is when the requests queued in it are intercepted
+     */
+    boolean isInBatch() {
+        return mInBatch.get() != null;
+    }
+
+    /**
+     * @return the wait in milliseconds before the given retry
+     */
+    long getBackOff(int retry) {
+        final long delay = Math.min(mInitialDelay << Math.min(retry - 1, 16), mMaxDelay);
+        // anywhere from half to one and a half times the delay
+        return delay / 2 + (long) (mRandom.nextDouble() * delay);
+    }
+
+    /**
+     * @return the wait in milliseconds drive asked for, or -1 if it didn't
+     */
+    private static long getRetryAfter(HttpResponse response) {
+        final String retryAfter = response.getHeaders().getRetryAfter();
+        if (retryAfter != null) {
+            try {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // an http date, back off as usual instead
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the wait in milliseconds before retrying a response, or -1 if
+     *         it is not retried
+     */
+    private long onFailedResponse(HttpResponse response, boolean retrySupported, int retry) {
+        if (!isRetryable(response.getStatusCode())) {
+            return -1;
+        }
+        mBreaker.recordFailure();
+        final long retryAfter = getRetryAfter(response);
+        if (retryAfter > mMaxDelay) {
+            // not worth waiting for here, nor worth asking again meanwhile
+            mBreaker.holdUntil(System.currentTimeMillis() + retryAfter);
+            return -1;
+        }
+        if (!retrySupported || retry > mMaxRetries) {
+            return -1;
+        }
+        return Math.max(retryAfter, getBackOff(retry));
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    /**
+     * Tracks the attempts of a single request. Waits happen before the next
+     * attempt is executed, which is the only place network errors can be
+     * seen from.
+     */
+    private class Attempts implements HttpExecuteInterceptor, HttpUnsuccessfulResponseHandler {
+
+        private final HttpExecuteInterceptor mInterceptor;
+
+        private final HttpUnsuccessfulResponseHandler mHandler;
+
+        private int mAttempt;
+
+        private int mRetry;
+
+        // the wait before the next attempt if the last one got a response
+        // that is retried, -1 if it didn't
+        private long mNextDelay = -1;
+
+        // whether the next attempt is the retry of another handler
+        private boolean mHandled;
+
+        Attempts(HttpExecuteInterceptor interceptor, HttpUnsuccessfulResponseHandler handler) {
+            mInterceptor = interceptor;
+            mHandler = handler;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            // a batch part that went unanswered because the batch failed as a
+            // whole was waited for by the batch
+            if (mAttempt++ > 0 && !mHandled && (mNextDelay >= 0 || mInBatch.get() == null)) {
+                long delay = mNextDelay;
+                if (delay < 0) {
+                    // the last attempt didn't get a response at all
+                    mBreaker.recordFailure();
+                    if (++mRetry > mMaxRetries) {
+                        throw new IOException("Giving up after " + mMaxRetries + " retries");
+                    }
+                    delay = getBackOff(mRetry);
+                }
+                mRetryCount.incrementAndGet();
+                sleep(delay);
+            }
+            mHandled = false;
+            mNextDelay = -1;
+            mBreaker.checkClosed();
+            // decided here, as the method is set after the request is
+            // initialized
+            request.setRetryOnExecuteIOException(isIdempotent(request.getMethod()));
+            if (mInterceptor != null) {
+                mInterceptor.intercept(request);
+            }
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+                boolean retrySupported) throws IOException {
+            if (mHandler != null && mHandler.handleResponse(request, response, retrySupported)) {
+                mHandled = true;
+                return true;
+            }
+            mNextDelay = onFailedResponse(response, retrySupported, ++mRetry);
+            return mNextDelay >= 0;
+        }
+    }
+
+    /**
+     * Tracks the attempts of a batch as a whole. The parts were not answered
+     * when the batch failed, and are sent again without waiting themselves.
+     */
+    private class BatchAttempts implements HttpUnsuccessfulResponseHandler {
+
+        private int mRetry;
+
+        @Override
+        public boolean handleResponse(HttpRequest request, HttpResponse response,
+                boolean retrySupported) throws IOException {
+            final long delay = onFailedResponse(response, retrySupported, ++mRetry);
+            if (delay < 0) {
+                return false;
+            }
+            mRetryCount.incrementAndGet();
+            sleep(delay);
+            mBreaker.checkClosed();
+            return true;
+        }
+    }
+
+}
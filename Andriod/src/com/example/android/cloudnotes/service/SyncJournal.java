@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Makes creating notes in drive safe against the process dying between the
+ * upload and saving its result, which would otherwise create the note in
+ * drive again on the next sync. Before a new note is uploaded, an entry with
+ * a client generated id is written to the journal, and the file is created
+ * with that id as a private property. The entry is removed in the same
+ * transaction that saves the drive id. Entries still there at the start of a
+ * sync are looked up in drive by their client id.
+ */
+public class SyncJournal {
+
+    // the drive file property holding the client id
+    static final String CLIENT_ID_PROPERTY = "cloudnotesClientId";
+
+    private static final Uri SYNC_URI = NotesProvider
+            .asSyncAdapter(NotesProvider.SYNC_JOURNAL_URI);
+
+    /**
+     * An upload that was started in an earlier sync.
+     */
+    public static class Entry {
+
+        public final long noteId;
+        public final String clientId;
+        // the modification time of the note as uploaded
+        public final long lastModified;
+
+        Entry(long noteId, String clientId, long lastModified) {
+            this.noteId = noteId;
+            this.clientId = clientId;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final ArrayList<Entry> mPending = new ArrayList<Entry>();
+
+    // client ids of the uploads started, by note id
+    private final HashMap<Long, String> mClientIds = new HashMap<Long, String>();
+
+    private SyncJournal() {
+    }
+
+    /**
+     * Reads the entries left by earlier syncs.
+     */
+    public static SyncJournal load(ContentResolver resolver) {
+        final SyncJournal journal = new SyncJournal();
+        Cursor c = resolver.query(NotesProvider.SYNC_JOURNAL_URI, JournalQuery.PROJECTION, null,
+                null, NotesProvider.KEY_ID);
+        try {
+            while (c.moveToNext()) {
+                final Entry entry = new Entry(c.getLong(JournalQuery.NOTE_ID),
+                        c.getString(JournalQuery.CLIENT_ID), c.getLong(JournalQuery.LAST_MODIFIED));
+                journal.mPending.add(entry);
+                journal.mClientIds.put(entry.noteId, entry.clientId);
+            }
+        } finally {
+            c.close();
+        }
+        return journal;
+    }
+
+    /**
+     * @return the uploads earlier syncs started but did not save, oldest
+     *         first
+     */
+    public List<Entry> getPending() {
+        return Collections.unmodifiableList(mPending);
+    }
+
+    /**
+     * @return the client id to create the note's drive file with; the one of
+     *         an earlier attempt if that never reached drive
+     */
+    public String getClientId(long noteId) {
+        String clientId = mClientIds.get(noteId);
+        if (clientId == null) {
+            clientId = UUID.randomUUID().toString();
+            mClientIds.put(noteId, clientId);
+        }
+        return clientId;
+    }
+
+    /**
+     * @return the write recording that the note is about to be created in
+     *         drive; it has to be applied before the upload is sent
+     */
+    public ContentProviderOperation newIntent(long noteId, String clientId, long lastModified) {
+        return ContentProviderOperation.newInsert(SYNC_URI)
+                .withValue(NotesProvider.KEY_NOTE_ID, noteId)
+                .withValue(NotesProvider.KEY_CLIENT_ID, clientId)
+                .withValue(NotesProvider.KEY_LAST_MODIFIED, lastModified).build();
+    }
+
+    /**
+     * @return the write removing the note's entry, to be applied along with
+     *         saving its drive id
+     */
+    public ContentProviderOperation newCommit(long noteId) {
+        mClientIds.remove(noteId);
+        return ContentProviderOperation.newDelete(SYNC_URI)
+                .withSelection(NotesProvider.KEY_NOTE_ID + "=?", new String[] {
+                    String.valueOf(noteId)
+                }).build();
+    }
+
+    /**
+     * Marks a new drive file with the client id.
+     */
+    public static void setClientId(File metadata, String clientId) {
+        final GenericJson property = new GenericJson();
+        property.put("key", CLIENT_ID_PROPERTY);
+        property.put("value", clientId);
+        property.put("visibility", "PRIVATE");
+        // not in this version of the drive model
+        metadata.set("properties", Collections.singletonList(property));
+    }
+
+    /**
+     * @return the file created with the given client id, or null if the
+     *         upload never got to drive
+     */
+    public static File find(Drive drive, String clientId, String fields) throws IOException {
+        final FileList files = drive.files().list()
+                .setQ("properties has { key='" + CLIENT_ID_PROPERTY + "' and value='" + clientId
+                        + "' and visibility='PRIVATE' } and trashed=false")
+                .setFields("items(" + fields + ")").execute();
+        if (files.getItems() == null || files.getItems().isEmpty()) {
+            return null;
+        }
+        return files.getItems().get(0);
+    }
+
+    private interface JournalQuery {
+
+        final static String[] PROJECTION = {
+                NotesProvider.KEY_NOTE_ID, NotesProvider.KEY_CLIENT_ID,
+                NotesProvider.KEY_LAST_MODIFIED
+        };
+
+        final static int NOTE_ID = 0;
+        final static int CLIENT_ID = 1;
+        final static int LAST_MODIFIED = 2;
+    }
+
+}
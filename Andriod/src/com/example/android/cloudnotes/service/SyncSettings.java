@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.cloudnotes.ui.HomeActivity;
+
+/**
+ * Tunable parameters of the drive sync, stored alongside the sync account in
+ * our shared prefs file. Every value falls back to a sensible default.
+ */
+public class SyncSettings {
+
+    // keys into the shared prefs file
+    public static final String KEY_LIST_PAGE_SIZE = "listPageSize";
+    public static final String KEY_UPLOAD_BATCH_SIZE = "uploadBatchSize";
+    public static final String KEY_TRANSFER_PARALLELISM = "transferParallelism";
+    public static final String KEY_WRITE_BATCH_SIZE = "writeBatchSize";
+    public static final String KEY_GZIP_THRESHOLD = "gzipThreshold";
+    public static final String KEY_UPLOAD_CHUNK_SIZE = "uploadChunkSize";
+    public static final String KEY_SYNC_INTERVAL = "syncInterval";
+    public static final String KEY_MAX_RETRIES = "maxRetries";
+    public static final String KEY_DRIVE_ROOT_URL = "driveRootUrl";
+
+    // defaults
+    public static final int DEFAULT_LIST_PAGE_SIZE = 100;
+    public static final int DEFAULT_UPLOAD_BATCH_SIZE = 50;
+    public static final int DEFAULT_TRANSFER_PARALLELISM = 4;
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 200;
+    public static final int DEFAULT_GZIP_THRESHOLD = 1024;
+    public static final int DEFAULT_UPLOAD_CHUNK_SIZE = ResumableUpload.CHUNK_GRANULARITY;
+    public static final long DEFAULT_SYNC_INTERVAL = 60 * 60;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    private final SharedPreferences mPrefs;
+
+    public SyncSettings(Context context) {
+        mPrefs = context.getSharedPreferences(HomeActivity.KEY_PREFS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the number of items requested per page when listing drive files
+     *         or changes
+     */
+    public int getListPageSize() {
+        return mPrefs.getInt(KEY_LIST_PAGE_SIZE, DEFAULT_LIST_PAGE_SIZE);
+    }
+
+    /**
+     * @return the number of new notes grouped into one upload batch
+     */
+    public int getUploadBatchSize() {
+        return mPrefs.getInt(KEY_UPLOAD_BATCH_SIZE, DEFAULT_UPLOAD_BATCH_SIZE);
+    }
+
+    /**
+     * @return the number of note contents uploaded or downloaded at once
+     */
+    public int getTransferParallelism() {
+        return mPrefs.getInt(KEY_TRANSFER_PARALLELISM, DEFAULT_TRANSFER_PARALLELISM);
+    }
+
+    /**
+     * @return the number of synced note writes committed per provider batch
+     */
+    public int getWriteBatchSize() {
+        return mPrefs.getInt(KEY_WRITE_BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE);
+    }
+
+    /**
+     * @return the size in bytes from which request bodies are sent gzipped;
+     *         smaller ones are not worth the gzip overhead
+     */
+    public int getGzipThreshold() {
+        return mPrefs.getInt(KEY_GZIP_THRESHOLD, DEFAULT_GZIP_THRESHOLD);
+    }
+
+    /**
+     * @return the number of bytes sent per request when uploading a large
+     *         note, rounded up to a size drive accepts
+     */
+    public int getUploadChunkSize() {
+        final int granularity = ResumableUpload.CHUNK_GRANULARITY;
+        final int chunkSize = mPrefs.getInt(KEY_UPLOAD_CHUNK_SIZE, DEFAULT_UPLOAD_CHUNK_SIZE);
+        return Math.max(1, (chunkSize + granularity - 1) / granularity) * granularity;
+    }
+
+    /**
+     * @return the number of seconds between periodic syncs, 0 for none
+     */
+    public long getSyncInterval() {
+        return mPrefs.getLong(KEY_SYNC_INTERVAL, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * @return how often a drive request that failed for a passing reason is
+     *         tried again
+     */
+    public int getMaxRetries() {
+        return mPrefs.getInt(KEY_MAX_RETRIES, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @return the root url of the drive api to sync with, such as
+     *         "http://10.0.2.2:8080/" for a server on the development
+     *         machine, or null for drive itself
+     */
+    public String getDriveRootUrl() {
+        return mPrefs.getString(KEY_DRIVE_ROOT_URL, null);
+    }
+
+}
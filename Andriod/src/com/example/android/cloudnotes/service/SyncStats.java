@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.ContentValues;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures a single sync: the time spent in each of its phases, the drive
+ * requests made and retried, the bytes moved and the note rows written.
+ * Downloads run on several threads, so their time is the sum over all of
+ * them and may exceed the duration of the sync.
+ */
+public class SyncStats {
+
+    // the phases of a sync
+    public static final int PHASE_TOKEN = 0;
+    public static final int PHASE_UPLOAD = 1;
+    public static final int PHASE_LIST = 2;
+    public static final int PHASE_RECONCILE = 3;
+    public static final int PHASE_DOWNLOAD = 4;
+    public static final int PHASE_COMMIT = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "token", "upload", "list", "reconcile", "download", "commit"
+    };
+
+    // the stats table column of each phase's time
+    private static final String[] PHASE_COLUMNS = {
+            NotesProvider.KEY_TOKEN_TIME, NotesProvider.KEY_UPLOAD_TIME,
+            NotesProvider.KEY_LIST_TIME, NotesProvider.KEY_RECONCILE_TIME,
+            NotesProvider.KEY_DOWNLOAD_TIME, NotesProvider.KEY_COMMIT_TIME
+    };
+
+    private final long mStartTime = System.currentTimeMillis();
+
+    private final long mStart = System.nanoTime();
+
+    private long mDuration = -1;
+
+    private final AtomicLongArray mPhaseTimes = new AtomicLongArray(PHASE_NAMES.length);
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    private final ByteCounter mBytes = new ByteCounter();
+
+    private int mRetries;
+
+    private int mRowsWritten;
+
+    private int mErrors;
+
+    /**
+     * @return a start time to pass to {@link #addTime(int, long)}
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time from the given start until now to a phase.
+     */
+    public void addTime(int phase, long start) {
+        mPhaseTimes.addAndGet(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the time spent in the phase so far, in nanoseconds
+     */
+    public long getTime(int phase) {
+        return mPhaseTimes.get(phase);
+    }
+
+    /**
+     * Counts an attempt at a drive request.
+     */
+    public void countRequest() {
+        mRequests.incrementAndGet();
+    }
+
+    /**
+     * @return the counter of the bytes sent and received
+     */
+    public ByteCounter getBytes() {
+        return mBytes;
+    }
+
+    public void setRetries(int retries) {
+        mRetries = retries;
+    }
+
+    public void addRowsWritten(int rows) {
+        mRowsWritten += rows;
+    }
+
+    public void setErrors(int errors) {
+        mErrors = errors;
+    }
+
+    /**
+     * Marks the end of the sync.
+     */
+    public void finish() {
+        mDuration = System.nanoTime() - mStart;
+    }
+
+    /**
+     * @return the row for the sync stats table
+     */
+    public ContentValues toValues() {
+        final ContentValues cv = new ContentValues();
+        cv.put(NotesProvider.KEY_STARTED, mStartTime);
+        cv.put(NotesProvider.KEY_DURATION, toMillis(mDuration));
+        for (int phase = 0; phase < PHASE_COLUMNS.length; phase++) {
+            cv.put(PHASE_COLUMNS[phase], toMillis(mPhaseTimes.get(phase)));
+        }
+        cv.put(NotesProvider.KEY_REQUESTS, mRequests.get());
+        cv.put(NotesProvider.KEY_RETRIES, mRetries);
+        cv.put(NotesProvider.KEY_BYTES_SENT, mBytes.getWireSent());
+        cv.put(NotesProvider.KEY_BYTES_RECEIVED, mBytes.getWireReceived());
+        cv.put(NotesProvider.KEY_ROWS_WRITTEN, mRowsWritten);
+        cv.put(NotesProvider.KEY_ERRORS, mErrors);
+        return cv;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(toMillis(mDuration)).append("ms (");
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            if (phase > 0) {
+                sb.append(", ");
+            }
+            sb.append(PHASE_NAMES[phase]).append(' ').append(toMillis(mPhaseTimes.get(phase)))
+                    .append("ms");
+        }
+        sb.append("), ").append(mRequests.get()).append(" requests, ").append(mRetries)
+                .append(" retries, ").append(mBytes).append(", ").append(mRowsWritten)
+                .append(" rows written, ").append(mErrors).append(" errors");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of worker threads for note content transfers. The network
+ * part of each {@link Transfer} runs on a worker, while its
+ * {@link Transfer#commit} step always runs on the thread that owns the pool,
+ * so database writes stay serialized.
+ * <p>
+ * At most twice the parallelism level of transfers are in flight at once;
+ * submitting more commits finished transfers first.
+ */
+public class TransferPool {
+
+    private static final String TAG = "TransferPool";
+
+    /**
+     * A single content transfer for one note.
+     */
+    public static abstract class Transfer<T> {
+
+        private final String mNote;
+
+        private T mResult;
+
+        private Exception mError;
+
+        /**
+         * @param note identifies the note being transferred in failure reports
+         */
+        public Transfer(String note) {
+            mNote = note;
+        }
+
+        /**
+         * Performs the network transfer. Called on a worker thread.
+         */
+        protected abstract T transfer() throws Exception;
+
+        /**
+         * Stores the result of a successful transfer. Called on the thread that
+         * owns the pool.
+         */
+        protected abstract void commit(T result);
+
+        public String getNote() {
+            return mNote;
+        }
+
+        public Exception getError() {
+            return mError;
+        }
+    }
+
+    private final ExecutorService mExecutor;
+
+    private final CompletionService<Transfer<?>> mCompletion;
+
+    private final int mMaxInFlight;
+
+    private int mInFlight = 0;
+
+    private int mCompleted = 0;
+
+    private final List<Transfer<?>> mFailures = new ArrayList<Transfer<?>>();
+
+    private final Set<String> mPendingNotes = new HashSet<String>();
+
+    public TransferPool(int parallelism) {
+        final int threads = Math.max(1, parallelism);
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread("CloudNotes Transfer #" + mCount.incrementAndGet()) {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                };
+            }
+        });
+        mCompletion = new ExecutorCompletionService<Transfer<?>>(mExecutor);
+        mMaxInFlight = threads * 2;
+    }
+
+    /**
+     * Schedule a transfer, committing finished ones first if the pool is
+     * saturated.
+     */
+    public <T> void submit(final Transfer<T> transfer) {
+        while (mInFlight >= mMaxInFlight) {
+            commitNext();
+        }
+        mCompletion.submit(new Callable<Transfer<?>>() {
+            @Override
+            public Transfer<?> call() {
+                try {
+                    transfer.mResult = transfer.transfer();
+                } catch (Exception e) {
+                    transfer.mError = e;
+                }
+                return transfer;
+            }
+        });
+        mInFlight++;
+        mPendingNotes.add(transfer.mNote);
+    }
+
+    /**
+     * @return true if a transfer for the given note has been submitted but not
+     *         yet committed
+     */
+    public boolean isPending(String note) {
+        return mPendingNotes.contains(note);
+    }
+
+    /**
+     * Wait for every submitted transfer to finish and commit the successful
+     * ones.
+     */
+    public void drain() {
+        while (mInFlight > 0) {
+            commitNext();
+        }
+    }
+
+    /**
+     * Stop the worker threads. Transfers that have not been drained are
+     * abandoned.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the number of transfers that completed successfully
+     */
+    public int getCompletedCount() {
+        return mCompleted;
+    }
+
+    /**
+     * @return the transfers that failed so far, each carrying its error
+     */
+    public List<Transfer<?>> getFailures() {
+        return Collections.unmodifiableList(mFailures);
+    }
+
+    private void commitNext() {
+        final Transfer<?> transfer;
+        try {
+            Future<Transfer<?>> done = mCompletion.take();
+            mInFlight--;
+            transfer = done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for transfers", e);
+        } catch (ExecutionException e) {
+            // transfers catch their own errors
+            throw new IllegalStateException(e);
+        }
+        mPendingNotes.remove(transfer.mNote);
+        if (transfer.mError == null) {
+            commit(transfer);
+            mCompleted++;
+        } else {
+            Log.w(TAG, "Transfer failed for note " + transfer.mNote, transfer.mError);
+            mFailures.add(transfer);
+        }
+    }
+
+    private static <T> void commit(Transfer<T> transfer) {
+        transfer.commit(transfer.mResult);
+    }
+
+}
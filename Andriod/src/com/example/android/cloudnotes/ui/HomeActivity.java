@@ -35,6 +35,7 @@ import android.view.MenuItem;
 
 import com.example.android.cloudnotes.R;
 import com.example.android.cloudnotes.provider.NotesProvider;
+import com.example.android.cloudnotes.service.DriveSyncAdapter;
 import com.example.android.cloudnotes.service.DriveSyncService;
 import com.example.android.cloudnotes.ui.NoteListFragment.NoteEventsCallback;
 import com.example.android.cloudnotes.utils.UiUtils;
@@ -101,6 +102,13 @@ public class HomeActivity extends Activity implements NoteEventsCallback {
         }
         if (savedInstanceState != null && savedInstanceState.containsKey(KEY_SYNCING)) {
             mIsSyncing = savedInstanceState.getBoolean(KEY_SYNCING);
+        } else {
+            // (re)register the periodic sync, e.g. after the interval changed
+            final String syncAccount = getSharedPreferences(KEY_PREFS, MODE_PRIVATE).getString(
+                    AccountManager.KEY_ACCOUNT_NAME, null);
+            if (!TextUtils.isEmpty(syncAccount)) {
+                DriveSyncAdapter.enableSync(this, syncAccount);
+            }
         }
     }
 
@@ -205,6 +213,7 @@ public class HomeActivity extends Activity implements NoteEventsCallback {
                                 MODE_PRIVATE).edit();
                         prefs.putString(AccountManager.KEY_ACCOUNT_NAME, syncAccount);
                         prefs.commit();
+                        DriveSyncAdapter.enableSync(this, syncAccount);
 
                         // resume syncing
                         startDriveSync();
@@ -19,13 +19,18 @@ package com.example.android.cloudnotes.ui;
 import android.app.Activity;
 import android.app.ListFragment;
 import android.app.LoaderManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Loader;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
 import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -59,6 +64,8 @@ public class NoteListFragment extends ListFragment implements
         public void onNoteDeleted();
     }
 
+    private static final String TAG = "NoteListFragment";
+
     // keys for saving state
     private static final String KEY_CURRENT_ACTIVATED = "KEY_CURRENT_ACTIVATED";
 
@@ -281,10 +288,22 @@ public class NoteListFragment extends ListFragment implements
                 case R.id.delete_notes:
                     int deletedCount = 0;
 
+                    // delete all checked notes in one transaction
+                    ArrayList<ContentProviderOperation> deletes =
+                            new ArrayList<ContentProviderOperation>(mCheckedItems.size());
                     for (long id : mCheckedItems) {
-                        deletedCount += getActivity().getContentResolver().delete(
-                                ContentUris.withAppendedId(NotesProvider.CONTENT_URI, id), null,
-                                null);
+                        deletes.add(ContentProviderOperation.newDelete(
+                                ContentUris.withAppendedId(NotesProvider.CONTENT_URI, id)).build());
+                    }
+                    try {
+                        for (ContentProviderResult result : getActivity().getContentResolver()
+                                .applyBatch(NotesProvider.CONTENT_AUTHORITY, deletes)) {
+                            deletedCount += result.count;
+                        }
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "Failed to delete notes", e);
+                    } catch (OperationApplicationException e) {
+                        Log.e(TAG, "Failed to delete notes", e);
                     }
 
                     // clear any selections
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * Stand-in for the android content provider operation: an insert, update or
+ * delete to apply as part of a batch, optionally checked against an expected
+ * row count.
+ */
+public class ContentProviderOperation {
+
+    public static final int TYPE_INSERT = 1;
+    public static final int TYPE_UPDATE = 2;
+    public static final int TYPE_DELETE = 3;
+
+    private final int mType;
+
+    private final Uri mUri;
+
+    private final String mSelection;
+
+    private final String[] mSelectionArgs;
+
+    private final ContentValues mValues;
+
+    private final Integer mExpectedCount;
+
+    private final boolean mYieldAllowed;
+
+    private ContentProviderOperation(Builder builder) {
+        mType = builder.mType;
+        mUri = builder.mUri;
+        mValues = builder.mValues;
+        mSelection = builder.mSelection;
+        mSelectionArgs = builder.mSelectionArgs;
+        mExpectedCount = builder.mExpectedCount;
+        mYieldAllowed = builder.mYieldAllowed;
+    }
+
+    public static Builder newInsert(Uri uri) {
+        return new Builder(TYPE_INSERT, uri);
+    }
+
+    public static Builder newUpdate(Uri uri) {
+        return new Builder(TYPE_UPDATE, uri);
+    }
+
+    public static Builder newDelete(Uri uri) {
+        return new Builder(TYPE_DELETE, uri);
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public boolean isYieldAllowed() {
+        return mYieldAllowed;
+    }
+
+    /**
+     * Applies the operation to the provider.
+     * 
+     * @param backRefs the results of the operations before it in the batch
+     * @param numBackRefs the number of those results
+     */
+    public ContentProviderResult apply(ContentProvider provider, ContentProviderResult[] backRefs,
+            int numBackRefs) throws OperationApplicationException {
+        if (mType == TYPE_INSERT) {
+            final Uri newUri = provider.insert(mUri, mValues);
+            if (newUri == null) {
+                throw new OperationApplicationException("insert failed");
+            }
+            return new ContentProviderResult(newUri);
+        }
+        final int numRows;
+        if (mType == TYPE_DELETE) {
+            numRows = provider.delete(mUri, mSelection, mSelectionArgs);
+        } else {
+            numRows = provider.update(mUri, mValues, mSelection, mSelectionArgs);
+        }
+        if (mExpectedCount != null && mExpectedCount != numRows) {
+            throw new OperationApplicationException("wrong number of rows: " + numRows);
+        }
+        return new ContentProviderResult(numRows);
+    }
+
+    @Override
+    public String toString() {
+        return "mType: " + mType + ", mUri: " + mUri + ", mSelection: " + mSelection
+                + ", mExpectedCount: " + mExpectedCount + ", mYieldAllowed: " + mYieldAllowed
+                + ", mValues: " + mValues;
+    }
+
+    /**
+     * Builds an operation.
+     */
+    public static class Builder {
+
+        private final int mType;
+
+        private final Uri mUri;
+
+        private String mSelection;
+
+        private String[] mSelectionArgs;
+
+        private ContentValues mValues;
+
+        private Integer mExpectedCount;
+
+        private boolean mYieldAllowed;
+
+        private Builder(int type, Uri uri) {
+            if (uri == null) {
+                throw new IllegalArgumentException("uri must not be null");
+            }
+            mType = type;
+            mUri = uri;
+        }
+
+        public ContentProviderOperation build() {
+            if (mType == TYPE_UPDATE && (mValues == null || mValues.size() == 0)) {
+                throw new IllegalArgumentException("Empty values");
+            }
+            return new ContentProviderOperation(this);
+        }
+
+        public Builder withValues(ContentValues values) {
+            checkValuesAllowed();
+            if (mValues == null) {
+                mValues = new ContentValues();
+            }
+            mValues.putAll(values);
+            return this;
+        }
+
+        public Builder withValue(String key, Object value) {
+            checkValuesAllowed();
+            if (mValues == null) {
+                mValues = new ContentValues();
+            }
+            if (value == null) {
+                mValues.putNull(key);
+            } else if (value instanceof String) {
+                mValues.put(key, (String) value);
+            } else if (value instanceof Byte) {
+                mValues.put(key, (Byte) value);
+            } else if (value instanceof Short) {
+                mValues.put(key, (Short) value);
+            } else if (value instanceof Integer) {
+                mValues.put(key, (Integer) value);
+            } else if (value instanceof Long) {
+                mValues.put(key, (Long) value);
+            } else if (value instanceof Float) {
+                mValues.put(key, (Float) value);
+            } else if (value instanceof Double) {
+                mValues.put(key, (Double) value);
+            } else if (value instanceof Boolean) {
+                mValues.put(key, (Boolean) value);
+            } else if (value instanceof byte[]) {
+                mValues.put(key, (byte[]) value);
+            } else {
+                throw new IllegalArgumentException("bad value type: " + value.getClass().getName());
+            }
+            return this;
+        }
+
+        public Builder withSelection(String selection, String[] selectionArgs) {
+            if (mType == TYPE_INSERT) {
+                throw new IllegalArgumentException(
+                        "only updates and deletes can have selections");
+            }
+            mSelection = selection;
+            mSelectionArgs = selectionArgs != null ? selectionArgs.clone() : null;
+            return this;
+        }
+
+        public Builder withExpectedCount(int count) {
+            if (mType == TYPE_INSERT) {
+                throw new IllegalArgumentException(
+                        "only updates and deletes can have expected counts");
+            }
+            mExpectedCount = count;
+            return this;
+        }
+
+        public Builder withYieldAllowed(boolean yieldAllowed) {
+            mYieldAllowed = yieldAllowed;
+            return this;
+        }
+
+        private void checkValuesAllowed() {
+            if (mType != TYPE_INSERT && mType != TYPE_UPDATE) {
+                throw new IllegalArgumentException("only inserts and updates can have values");
+            }
+        }
+    }
+}
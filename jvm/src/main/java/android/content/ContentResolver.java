@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+
+/**
+ * Stand-in for the android content resolver, calling the providers of the
+ * same process directly. Change notifications are only counted, there are no
+ * observers or syncs to tell.
+ */
+public abstract class ContentResolver {
+
+    private volatile long mNotifyCount;
+
+    private volatile long mSyncToNetworkCount;
+
+    /**
+     * @return the provider for the authority, or null if there is none
+     */
+    protected abstract ContentProvider acquireProvider(String authority);
+
+    private ContentProvider acquireProvider(Uri uri) {
+        final ContentProvider provider = acquireProvider(uri.getAuthority());
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown URL " + uri);
+        }
+        return provider;
+    }
+
+    public final String getType(Uri uri) {
+        return acquireProvider(uri).getType(uri);
+    }
+
+    public final Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        final ContentProvider provider = acquireProvider(uri.getAuthority());
+        if (provider == null) {
+            return null;
+        }
+        return provider.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    public final Uri insert(Uri uri, ContentValues values) {
+        return acquireProvider(uri).insert(uri, values);
+    }
+
+    public final int bulkInsert(Uri uri, ContentValues[] values) {
+        return acquireProvider(uri).bulkInsert(uri, values);
+    }
+
+    public final int update(Uri uri, ContentValues values, String where,
+            String[] selectionArgs) {
+        return acquireProvider(uri).update(uri, values, where, selectionArgs);
+    }
+
+    public final int delete(Uri uri, String where, String[] selectionArgs) {
+        return acquireProvider(uri).delete(uri, where, selectionArgs);
+    }
+
+    public ContentProviderResult[] applyBatch(String authority,
+            ArrayList<ContentProviderOperation> operations) throws RemoteException,
+            OperationApplicationException {
+        final ContentProvider provider = acquireProvider(authority);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown authority " + authority);
+        }
+        return provider.applyBatch(operations);
+    }
+
+    public void notifyChange(Uri uri, ContentObserver observer) {
+        notifyChange(uri, observer, true);
+    }
+
+    public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+        mNotifyCount++;
+        if (syncToNetwork) {
+            mSyncToNetworkCount++;
+        }
+    }
+
+    /**
+     * @return the number of change notifications sent so far
+     */
+    public long getNotifyCount() {
+        return mNotifyCount;
+    }
+
+    /**
+     * @return the number of change notifications so far that asked for an
+     *         upload sync
+     */
+    public long getSyncToNetworkCount() {
+        return mSyncToNetworkCount;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stand-in for the android content values: column values by name, as boxed
+ * strings, numbers, booleans or byte arrays.
+ */
+public final class ContentValues {
+
+    private final HashMap<String, Object> mValues;
+
+    public ContentValues() {
+        mValues = new HashMap<String, Object>(8);
+    }
+
+    public ContentValues(int size) {
+        mValues = new HashMap<String, Object>(size, 1.0f);
+    }
+
+    public ContentValues(ContentValues from) {
+        mValues = new HashMap<String, Object>(from.mValues);
+    }
+
+    public void put(String key, String value) {
+        mValues.put(key, value);
+    }
+
+    public void putAll(ContentValues other) {
+        mValues.putAll(other.mValues);
+    }
+
+    public void put(String key, Byte value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Short value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Float value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Double value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Boolean value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, byte[] value) {
+        mValues.put(key, value);
+    }
+
+    public void putNull(String key) {
+        mValues.put(key, null);
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    public void remove(String key) {
+        mValues.remove(key);
+    }
+
+    public void clear() {
+        mValues.clear();
+    }
+
+    public boolean containsKey(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return mValues.get(key);
+    }
+
+    public String getAsString(String key) {
+        final Object value = mValues.get(key);
+        return value != null ? value.toString() : null;
+    }
+
+    public Long getAsLong(String key) {
+        final Object value = mValues.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof CharSequence) {
+            try {
+                return Long.valueOf(value.toString());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public Integer getAsInteger(String key) {
+        final Long value = getAsLong(key);
+        return value != null ? Integer.valueOf(value.intValue()) : null;
+    }
+
+    public Double getAsDouble(String key) {
+        final Object value = mValues.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof CharSequence) {
+            try {
+                return Double.valueOf(value.toString());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public Boolean getAsBoolean(String key) {
+        final Object value = mValues.get(key);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        if (value instanceof CharSequence) {
+            return Boolean.valueOf(value.toString()) || "1".equals(value.toString());
+        }
+        return null;
+    }
+
+    public byte[] getAsByteArray(String key) {
+        final Object value = mValues.get(key);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    public Set<Map.Entry<String, Object>> valueSet() {
+        return mValues.entrySet();
+    }
+
+    public Set<String> keySet() {
+        return mValues.keySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ContentValues && mValues.equals(((ContentValues) o).mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return mValues.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mValues.toString();
+    }
+}
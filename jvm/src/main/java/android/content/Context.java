@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Stand-in for the android context, with what the provider and the sync use
+ * of it.
+ */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0x0000;
+
+    public abstract Context getApplicationContext();
+
+    public abstract String getPackageName();
+
+    public abstract ContentResolver getContentResolver();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getDatabasePath(String name);
+
+    public abstract File getCacheDir();
+
+    public abstract SQLiteDatabase openOrCreateDatabase(String name, int mode,
+            SQLiteDatabase.CursorFactory factory);
+
+    public abstract boolean deleteDatabase(String name);
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import android.os.Parcelable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the android intent, an action with extras.
+ */
+public class Intent implements Parcelable {
+
+    private String mAction;
+
+    private final Map<String, Object> mExtras = new HashMap<String, Object>();
+
+    public Intent() {
+    }
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setAction(String action) {
+        mAction = action;
+        return this;
+    }
+
+    public Intent putExtra(String name, String value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, long value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, Parcelable value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public boolean hasExtra(String name) {
+        return mExtras.containsKey(name);
+    }
+
+    public String getStringExtra(String name) {
+        return (String) mExtras.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return "Intent { act=" + mAction + " extras=" + mExtras + " }";
+    }
+}
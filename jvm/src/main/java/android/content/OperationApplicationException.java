@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+/**
+ * Stand-in for the android exception thrown when a content provider
+ * operation could not be applied.
+ */
+public class OperationApplicationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public OperationApplicationException() {
+    }
+
+    public OperationApplicationException(String message) {
+        super(message);
+    }
+
+    public OperationApplicationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OperationApplicationException(Throwable cause) {
+        super(cause);
+    }
+}
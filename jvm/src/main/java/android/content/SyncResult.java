@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+/**
+ * Stand-in for the android result of a sync, telling soft errors, which are
+ * retried with backoff, from hard ones.
+ */
+public final class SyncResult {
+
+    public final SyncStats stats = new SyncStats();
+
+    public boolean syncAlreadyInProgress;
+
+    public boolean tooManyDeletions;
+
+    public boolean tooManyRetries;
+
+    public boolean databaseError;
+
+    public boolean fullSyncRequested;
+
+    public boolean partialSyncUnavailable;
+
+    public boolean moreRecordsToGet;
+
+    public long delayUntil;
+
+    public boolean hasHardError() {
+        return stats.numParseExceptions > 0 || stats.numConflictDetectedExceptions > 0
+                || stats.numAuthExceptions > 0 || tooManyDeletions || tooManyRetries
+                || databaseError;
+    }
+
+    public boolean hasSoftError() {
+        return syncAlreadyInProgress || stats.numIoExceptions > 0;
+    }
+
+    public boolean hasError() {
+        return hasSoftError() || hasHardError();
+    }
+
+    @Override
+    public String toString() {
+        return "SyncResult: " + stats + (delayUntil > 0 ? " delayUntil: " + delayUntil : "");
+    }
+}
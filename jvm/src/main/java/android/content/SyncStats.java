@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+/**
+ * Stand-in for the android counts of what a sync did.
+ */
+public class SyncStats {
+
+    public long numAuthExceptions;
+
+    public long numIoExceptions;
+
+    public long numParseExceptions;
+
+    public long numConflictDetectedExceptions;
+
+    public long numInserts;
+
+    public long numUpdates;
+
+    public long numDeletes;
+
+    public long numEntries;
+
+    public long numSkippedEntries;
+
+    public void clear() {
+        numAuthExceptions = 0;
+        numIoExceptions = 0;
+        numParseExceptions = 0;
+        numConflictDetectedExceptions = 0;
+        numInserts = 0;
+        numUpdates = 0;
+        numDeletes = 0;
+        numEntries = 0;
+        numSkippedEntries = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "numAuthExceptions: " + numAuthExceptions + " numIoExceptions: " + numIoExceptions
+                + " numParseExceptions: " + numParseExceptions
+                + " numConflictDetectedExceptions: " + numConflictDetectedExceptions
+                + " numInserts: " + numInserts + " numUpdates: " + numUpdates + " numDeletes: "
+                + numDeletes + " numEntries: " + numEntries + " numSkippedEntries: "
+                + numSkippedEntries;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the android uri matcher, matching the same way: a tree with
+ * one level per path segment, searched child by child in the order the
+ * patterns were added. "#" matches a segment of digits and "*" any segment.
+ */
+public class UriMatcher {
+
+    public static final int NO_MATCH = -1;
+
+    private static final int EXACT = 0;
+    private static final int NUMBER = 1;
+    private static final int TEXT = 2;
+
+    private int mCode;
+
+    private final int mWhich;
+
+    private final String mText;
+
+    private final ArrayList<UriMatcher> mChildren = new ArrayList<UriMatcher>();
+
+    public UriMatcher(int code) {
+        this(code, EXACT, null);
+    }
+
+    private UriMatcher(int code, int which, String text) {
+        mCode = code;
+        mWhich = which;
+        mText = text;
+    }
+
+    public void addURI(String authority, String path, int code) {
+        if (code < 0) {
+            throw new IllegalArgumentException("code " + code + " is invalid: it must be positive");
+        }
+        String[] tokens = null;
+        if (path != null) {
+            // strip a leading slash, as android does
+            tokens = (path.length() > 0 && path.charAt(0) == '/' ? path.substring(1) : path)
+                    .split("/");
+        }
+        final int numTokens = tokens != null ? tokens.length : 0;
+        UriMatcher node = this;
+        for (int i = -1; i < numTokens; i++) {
+            final String token = i < 0 ? authority : tokens[i];
+            UriMatcher child = null;
+            for (UriMatcher existing : node.mChildren) {
+                if (token.equals(existing.mText)) {
+                    child = existing;
+                    break;
+                }
+            }
+            if (child == null) {
+                if (token.equals("#")) {
+                    child = new UriMatcher(NO_MATCH, NUMBER, token);
+                } else if (token.equals("*")) {
+                    child = new UriMatcher(NO_MATCH, TEXT, token);
+                } else {
+                    child = new UriMatcher(NO_MATCH, EXACT, token);
+                }
+                node.mChildren.add(child);
+            }
+            node = child;
+        }
+        node.mCode = code;
+    }
+
+    /**
+     * @return the code of the pattern matching the uri, or the code given to
+     *         the constructor if none does
+     */
+    public int match(Uri uri) {
+        final List<String> pathSegments = uri.getPathSegments();
+        final int li = pathSegments.size();
+        UriMatcher node = this;
+        if (li == 0 && uri.getAuthority() == null) {
+            return mCode;
+        }
+        for (int i = -1; i < li; i++) {
+            final String u = i < 0 ? uri.getAuthority() : pathSegments.get(i);
+            final ArrayList<UriMatcher> list = node.mChildren;
+            if (list.isEmpty()) {
+                break;
+            }
+            node = null;
+            for (int j = 0; j < list.size(); j++) {
+                final UriMatcher n = list.get(j);
+                switch (n.mWhich) {
+                    case EXACT:
+                        if (n.mText.equals(u)) {
+                            node = n;
+                        }
+                        break;
+                    case NUMBER:
+                        if (isNumber(u)) {
+                            node = n;
+                        }
+                        break;
+                    case TEXT:
+                        node = n;
+                        break;
+                }
+                if (node != null) {
+                    break;
+                }
+            }
+            if (node == null) {
+                return NO_MATCH;
+            }
+        }
+        return node.mCode;
+    }
+
+    private static boolean isNumber(String s) {
+        final int length = s.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
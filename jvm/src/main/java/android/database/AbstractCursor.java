@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+/**
+ * Stand-in for the android cursor base class: keeps the position, so
+ * subclasses only supply the rows.
+ */
+public abstract class AbstractCursor implements Cursor {
+
+    protected int mPos = -1;
+
+    protected boolean mClosed;
+
+    private Uri mNotifyUri;
+
+    /**
+     * @return the value of the column in the current row
+     */
+    protected abstract Object get(int column);
+
+    @Override
+    public abstract int getCount();
+
+    @Override
+    public abstract String[] getColumnNames();
+
+    @Override
+    public final int getPosition() {
+        return mPos;
+    }
+
+    @Override
+    public final boolean moveToPosition(int position) {
+        final int count = getCount();
+        if (position >= count) {
+            mPos = count;
+            return false;
+        }
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        mPos = position;
+        return true;
+    }
+
+    @Override
+    public final boolean move(int offset) {
+        return moveToPosition(mPos + offset);
+    }
+
+    @Override
+    public final boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public final boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public final boolean moveToNext() {
+        return moveToPosition(mPos + 1);
+    }
+
+    @Override
+    public final boolean moveToPrevious() {
+        return moveToPosition(mPos - 1);
+    }
+
+    @Override
+    public final boolean isFirst() {
+        return mPos == 0 && getCount() != 0;
+    }
+
+    @Override
+    public final boolean isLast() {
+        final int count = getCount();
+        return mPos == count - 1 && count != 0;
+    }
+
+    @Override
+    public final boolean isBeforeFirst() {
+        return getCount() == 0 || mPos == -1;
+    }
+
+    @Override
+    public final boolean isAfterLast() {
+        return getCount() == 0 || mPos == getCount();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        // a qualified name, as in "table.column", is matched on the column
+        final int period = columnName.lastIndexOf('.');
+        if (period != -1) {
+            columnName = columnName.substring(period + 1);
+        }
+        final String[] columnNames = getColumnNames();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        final int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return getColumnNames()[columnIndex];
+    }
+
+    @Override
+    public int getColumnCount() {
+        return getColumnNames().length;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        final Object value = checkedGet(column);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        throw new SQLException("Unable to convert " + value.getClass().getSimpleName()
+                + " to blob");
+    }
+
+    @Override
+    public String getString(int column) {
+        final Object value = checkedGet(column);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        final Object value = checkedGet(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            // sqlite reads text that is no number as zero
+            return 0;
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final Object value = checkedGet(column);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return checkedGet(column) == null;
+    }
+
+    private Object checkedGet(int column) {
+        if (mClosed) {
+            throw new IllegalStateException("Cursor is closed");
+        }
+        if (mPos < 0 || mPos >= getCount()) {
+            throw new IndexOutOfBoundsException("Index " + mPos + " requested, with a size of "
+                    + getCount());
+        }
+        if (column < 0 || column >= getColumnCount()) {
+            throw new IndexOutOfBoundsException("Requested column: " + column
+                    + ", # of columns: " + getColumnCount());
+        }
+        return get(column);
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver cr, Uri notifyUri) {
+        mNotifyUri = notifyUri;
+    }
+
+    @Override
+    public Uri getNotificationUri() {
+        return mNotifyUri;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.io.Closeable;
+
+/**
+ * Stand-in for the android cursor, random access to the rows of a query
+ * result.
+ */
+public interface Cursor extends Closeable {
+
+    int getCount();
+
+    int getPosition();
+
+    boolean move(int offset);
+
+    boolean moveToPosition(int position);
+
+    boolean moveToFirst();
+
+    boolean moveToLast();
+
+    boolean moveToNext();
+
+    boolean moveToPrevious();
+
+    boolean isFirst();
+
+    boolean isLast();
+
+    boolean isBeforeFirst();
+
+    boolean isAfterLast();
+
+    int getColumnIndex(String columnName);
+
+    int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException;
+
+    String getColumnName(int columnIndex);
+
+    String[] getColumnNames();
+
+    int getColumnCount();
+
+    byte[] getBlob(int columnIndex);
+
+    String getString(int columnIndex);
+
+    short getShort(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    float getFloat(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    void close();
+
+    boolean isClosed();
+
+    void setNotificationUri(ContentResolver cr, Uri notifyUri);
+
+    Uri getNotificationUri();
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database;
+
+import java.util.ArrayList;
+
+/**
+ * Stand-in for the android cursor over rows held in memory.
+ */
+public class MatrixCursor extends AbstractCursor {
+
+    private final String[] mColumnNames;
+
+    private final ArrayList<Object[]> mRows;
+
+    public MatrixCursor(String[] columnNames, int initialCapacity) {
+        mColumnNames = columnNames;
+        mRows = new ArrayList<Object[]>(Math.max(initialCapacity, 1));
+    }
+
+    public MatrixCursor(String[] columnNames) {
+        this(columnNames, 16);
+    }
+
+    /**
+     * @param columnValues one value per column, which the cursor keeps
+     */
+    public void addRow(Object[] columnValues) {
+        if (columnValues.length != mColumnNames.length) {
+            throw new IllegalArgumentException("columnNames.length = " + mColumnNames.length
+                    + ", columnValues.length = " + columnValues.length);
+        }
+        mRows.add(columnValues);
+    }
+
+    public void addRow(Iterable<?> columnValues) {
+        final ArrayList<Object> row = new ArrayList<Object>(mColumnNames.length);
+        for (Object value : columnValues) {
+            row.add(value);
+        }
+        addRow(row.toArray());
+    }
+
+    @Override
+    protected Object get(int column) {
+        return mRows.get(mPos)[column];
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import org.sqlite.Collation;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.Collator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stand-in for the android database, on sqlite itself through sqlite-jdbc.
+ * There is one connection, which a thread has to itself for as long as it
+ * runs a statement or a transaction, much as the android primary connection
+ * is held. Transactions nest the way android's do: the outermost one commits
+ * only if every nested one was marked successful. Query results are read in
+ * full before the connection is let go, like a cursor window would be.
+ */
+public final class SQLiteDatabase {
+
+    /**
+     * Android's cursor factory; cursors are always made here.
+     */
+    public interface CursorFactory {
+    }
+
+    public static final int CONFLICT_NONE = 0;
+    public static final int CONFLICT_ROLLBACK = 1;
+    public static final int CONFLICT_ABORT = 2;
+    public static final int CONFLICT_FAIL = 3;
+    public static final int CONFLICT_IGNORE = 4;
+    public static final int CONFLICT_REPLACE = 5;
+
+    private static final String[] CONFLICT_VALUES = {
+            "", " OR ROLLBACK ", " OR ABORT ", " OR FAIL ", " OR IGNORE ", " OR REPLACE "
+    };
+
+    public static final String MEMORY_DB_PATH = ":memory:";
+
+    // android's default size of the per connection statement cache
+    private static final int MAX_CACHED_STATEMENTS = 25;
+
+    // sqlite's primary result code for a violated constraint
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private final String mPath;
+
+    private final Connection mConnection;
+
+    // fair, so a yielding transaction lets a waiting thread in before it
+    // takes the connection back
+    private final ReentrantLock mLock = new ReentrantLock(true);
+
+    // guarded by mLock
+    private final LinkedHashMap<String, PreparedStatement> mStatements =
+            new LinkedHashMap<String, PreparedStatement>(MAX_CACHED_STATEMENTS, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > MAX_CACHED_STATEMENTS) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // the innermost transaction of the thread holding mLock, or null
+    private Transaction mTransaction;
+
+    private volatile boolean mOpen = true;
+
+    private SQLiteDatabase(String path) {
+        mPath = path;
+        try {
+            mConnection = DriverManager.getConnection("jdbc:sqlite:" + path);
+            // android's sort order of text as the user's locale has it
+            Collation.create(mConnection, "LOCALIZED", new Collation() {
+                private final Collator mCollator = Collator.getInstance();
+
+                @Override
+                protected int xCompare(String a, String b) {
+                    return mCollator.compare(a, b);
+                }
+            });
+            // android's defaults for databases not in wal mode
+            execute("PRAGMA synchronous=FULL");
+            execute("PRAGMA journal_mode=TRUNCATE");
+        } catch (java.sql.SQLException e) {
+            throw new SQLiteException("Failed to open database " + path, e);
+        }
+    }
+
+    public static SQLiteDatabase openOrCreateDatabase(File file, CursorFactory factory) {
+        return openOrCreateDatabase(file.getPath(), factory);
+    }
+
+    public static SQLiteDatabase openOrCreateDatabase(String path, CursorFactory factory) {
+        return new SQLiteDatabase(path);
+    }
+
+    /**
+     * @return a new database in memory, gone once closed
+     */
+    public static SQLiteDatabase create(CursorFactory factory) {
+        return new SQLiteDatabase(MEMORY_DB_PATH);
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    public void close() {
+        mLock.lock();
+        try {
+            if (!mOpen) {
+                return;
+            }
+            mOpen = false;
+            for (PreparedStatement statement : mStatements.values()) {
+                closeQuietly(statement);
+            }
+            mStatements.clear();
+            mConnection.close();
+        } catch (java.sql.SQLException e) {
+            throw new SQLiteException("Failed to close database " + mPath, e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getVersion() {
+        return (int) executeForLong("PRAGMA user_version", null);
+    }
+
+    public void setVersion(int version) {
+        execSQL("PRAGMA user_version = " + version);
+    }
+
+    /**
+     * Switches the database to write-ahead logging, with android's sync
+     * mode for it.
+     *
+     * @return false for in-memory databases, which have no log
+     */
+    public boolean enableWriteAheadLogging() {
+        if (MEMORY_DB_PATH.equals(mPath)) {
+            return false;
+        }
+        mLock.lock();
+        try {
+            if (mTransaction != null) {
+                throw new IllegalStateException(
+                        "Write Ahead Logging (WAL) mode cannot be enabled or disabled while "
+                                + "there are transactions in progress.");
+            }
+            execute("PRAGMA journal_mode=WAL");
+            execute("PRAGMA synchronous=NORMAL");
+            return true;
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, "PRAGMA journal_mode=WAL");
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void beginTransaction() {
+        begin(true);
+    }
+
+    public void beginTransactionNonExclusive() {
+        begin(false);
+    }
+
+    private void begin(boolean exclusive) {
+        mLock.lock();
+        try {
+            if (mTransaction == null) {
+                executeOrThrow(exclusive ? "BEGIN EXCLUSIVE" : "BEGIN IMMEDIATE");
+            } else if (mTransaction.mMarkedSuccessful) {
+                throw new IllegalStateException("Cannot perform this operation because the "
+                        + "transaction has already been marked successful.  The only thing "
+                        + "you can do now is call endTransaction().");
+            }
+        } catch (RuntimeException e) {
+            mLock.unlock();
+            throw e;
+        }
+        final Transaction transaction = new Transaction();
+        transaction.mExclusive = exclusive;
+        transaction.mParent = mTransaction;
+        mTransaction = transaction;
+    }
+
+    public void setTransactionSuccessful() {
+        checkInTransaction();
+        if (mTransaction.mMarkedSuccessful) {
+            throw new IllegalStateException("Cannot perform this operation because the "
+                    + "transaction has already been marked successful.  The only thing you can "
+                    + "do now is call endTransaction().");
+        }
+        mTransaction.mMarkedSuccessful = true;
+    }
+
+    public void endTransaction() {
+        checkInTransaction();
+        end(false);
+    }
+
+    private void end(boolean yielding) {
+        final Transaction top = mTransaction;
+        final boolean successful = (top.mMarkedSuccessful || yielding) && !top.mChildFailed;
+        mTransaction = top.mParent;
+        try {
+            if (mTransaction != null) {
+                if (!successful) {
+                    mTransaction.mChildFailed = true;
+                }
+            } else if (successful) {
+                try {
+                    executeOrThrow("COMMIT");
+                } catch (RuntimeException e) {
+                    executeOrThrow("ROLLBACK");
+                    throw e;
+                }
+            } else {
+                executeOrThrow("ROLLBACK");
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public boolean inTransaction() {
+        return mLock.isHeldByCurrentThread() && mTransaction != null;
+    }
+
+    public boolean isDbLockedByCurrentThread() {
+        return mLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Commits the transaction and lets other threads waiting for the
+     * database run before starting a new one, if any are waiting.
+     *
+     * @return true if the transaction was yielded
+     */
+    public boolean yieldIfContendedSafely() {
+        return yieldIfContended(0);
+    }
+
+    public boolean yieldIfContendedSafely(long sleepAfterYieldDelay) {
+        return yieldIfContended(sleepAfterYieldDelay);
+    }
+
+    private boolean yieldIfContended(long sleepAfterYieldDelay) {
+        checkInTransaction();
+        if (mTransaction.mParent != null) {
+            throw new IllegalStateException("Cannot yield a nested transaction.");
+        }
+        if (mTransaction.mMarkedSuccessful) {
+            throw new IllegalStateException("Cannot perform this operation because the "
+                    + "transaction has already been marked successful.  The only thing you can "
+                    + "do now is call endTransaction().");
+        }
+        if (mTransaction.mChildFailed || !mLock.hasQueuedThreads()) {
+            return false;
+        }
+        final boolean exclusive = mTransaction.mExclusive;
+        end(true);
+        if (sleepAfterYieldDelay > 0) {
+            try {
+                Thread.sleep(sleepAfterYieldDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        begin(exclusive);
+        return true;
+    }
+
+    private void checkInTransaction() {
+        if (!inTransaction()) {
+            throw new IllegalStateException("Cannot perform this operation because there is no "
+                    + "current transaction.");
+        }
+    }
+
+    public void execSQL(String sql) {
+        executeForChangedRowCount(sql, null);
+    }
+
+    public void execSQL(String sql, Object[] bindArgs) {
+        if (bindArgs == null) {
+            throw new IllegalArgumentException("Empty bindArgs");
+        }
+        executeForChangedRowCount(sql, bindArgs);
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        return new SQLiteStatement(this, sql);
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        if (selectionArgs != null) {
+            for (int i = 0; i < selectionArgs.length; i++) {
+                if (selectionArgs[i] == null) {
+                    throw new IllegalArgumentException("the bind value at index " + (i + 1)
+                            + " is null");
+                }
+            }
+        }
+        mLock.lock();
+        try {
+            final PreparedStatement statement = prepare(sql, selectionArgs);
+            final ResultSet rows = statement.executeQuery();
+            try {
+                final ResultSetMetaData meta = rows.getMetaData();
+                final String[] columns = new String[meta.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = meta.getColumnLabel(i + 1);
+                }
+                final MatrixCursor cursor = new MatrixCursor(columns);
+                while (rows.next()) {
+                    final Object[] row = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        row[i] = rows.getObject(i + 1);
+                    }
+                    cursor.addRow(row);
+                }
+                return cursor;
+            } finally {
+                rows.close();
+            }
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, sql);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public Cursor query(String table, String[] columns, String selection,
+            String[] selectionArgs, String groupBy, String having, String orderBy) {
+        return query(false, table, columns, selection, selectionArgs, groupBy, having, orderBy,
+                null);
+    }
+
+    public Cursor query(String table, String[] columns, String selection,
+            String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
+        return query(false, table, columns, selection, selectionArgs, groupBy, having, orderBy,
+                limit);
+    }
+
+    public Cursor query(boolean distinct, String table, String[] columns, String selection,
+            String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
+        return rawQuery(SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection,
+                groupBy, having, orderBy, limit), selectionArgs);
+    }
+
+    /**
+     * @return the row id of the new row, or -1 if it could not be inserted
+     */
+    public long insert(String table, String nullColumnHack, ContentValues values) {
+        try {
+            return insertWithOnConflict(table, nullColumnHack, values, CONFLICT_NONE);
+        } catch (SQLiteException e) {
+            Log.e("SQLiteDatabase", "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+        return insertWithOnConflict(table, nullColumnHack, values, CONFLICT_NONE);
+    }
+
+    public long replace(String table, String nullColumnHack, ContentValues values) {
+        try {
+            return insertWithOnConflict(table, nullColumnHack, values, CONFLICT_REPLACE);
+        } catch (SQLiteException e) {
+            Log.e("SQLiteDatabase", "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    public long insertWithOnConflict(String table, String nullColumnHack,
+            ContentValues initialValues, int conflictAlgorithm) {
+        final StringBuilder sql = new StringBuilder();
+        sql.append("INSERT");
+        sql.append(CONFLICT_VALUES[conflictAlgorithm]);
+        sql.append(" INTO ");
+        sql.append(table);
+        sql.append('(');
+
+        Object[] bindArgs = null;
+        final int size = (initialValues != null && initialValues.size() > 0) ? initialValues
+                .size() : 0;
+        if (size > 0) {
+            bindArgs = new Object[size];
+            int i = 0;
+            for (String colName : initialValues.keySet()) {
+                sql.append((i > 0) ? "," : "");
+                sql.append(colName);
+                bindArgs[i++] = initialValues.get(colName);
+            }
+            sql.append(')');
+            sql.append(" VALUES (");
+            for (i = 0; i < size; i++) {
+                sql.append((i > 0) ? ",?" : "?");
+            }
+        } else {
+            sql.append(nullColumnHack + ") VALUES (NULL");
+        }
+        sql.append(')');
+        return executeForLastInsertedRowId(sql.toString(), bindArgs);
+    }
+
+    public int update(String table, ContentValues values, String whereClause,
+            String[] whereArgs) {
+        return updateWithOnConflict(table, values, whereClause, whereArgs, CONFLICT_NONE);
+    }
+
+    public int updateWithOnConflict(String table, ContentValues values, String whereClause,
+            String[] whereArgs, int conflictAlgorithm) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+        final StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ");
+        sql.append(CONFLICT_VALUES[conflictAlgorithm]);
+        sql.append(table);
+        sql.append(" SET ");
+
+        final int setValuesSize = values.size();
+        final int bindArgsSize = (whereArgs == null) ? setValuesSize : (setValuesSize
+                + whereArgs.length);
+        final Object[] bindArgs = new Object[bindArgsSize];
+        int i = 0;
+        for (String colName : values.keySet()) {
+            sql.append((i > 0) ? "," : "");
+            sql.append(colName);
+            bindArgs[i++] = values.get(colName);
+            sql.append("=?");
+        }
+        if (whereArgs != null) {
+            for (i = setValuesSize; i < bindArgsSize; i++) {
+                bindArgs[i] = whereArgs[i - setValuesSize];
+            }
+        }
+        if (whereClause != null && whereClause.length() > 0) {
+            sql.append(" WHERE ");
+            sql.append(whereClause);
+        }
+        return executeForChangedRowCount(sql.toString(), bindArgs);
+    }
+
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        return executeForChangedRowCount("DELETE FROM " + table
+                + (whereClause != null && whereClause.length() > 0 ? " WHERE " + whereClause
+                        : ""), whereArgs);
+    }
+
+    int executeForChangedRowCount(String sql, Object[] bindArgs) {
+        mLock.lock();
+        try {
+            return prepare(sql, bindArgs).executeUpdate();
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, sql);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    long executeForLastInsertedRowId(String sql, Object[] bindArgs) {
+        mLock.lock();
+        try {
+            if (prepare(sql, bindArgs).executeUpdate() <= 0) {
+                return -1;
+            }
+            return executeForLong("SELECT last_insert_rowid()", null);
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, sql);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    long executeForLong(String sql, Object[] bindArgs) {
+        final String value = executeForString(sql, bindArgs);
+        return value != null ? Long.parseLong(value) : 0;
+    }
+
+    String executeForString(String sql, Object[] bindArgs) {
+        mLock.lock();
+        try {
+            final ResultSet rows = prepare(sql, bindArgs).executeQuery();
+            try {
+                if (!rows.next()) {
+                    throw new SQLiteDoneException();
+                }
+                return rows.getString(1);
+            } finally {
+                rows.close();
+            }
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, sql);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int getParameterCount(String sql) {
+        mLock.lock();
+        try {
+            return prepare(sql, null).getParameterMetaData().getParameterCount();
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, sql);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Runs a statement outside the statement cache.
+     */
+    private void execute(String sql) throws java.sql.SQLException {
+        final Statement statement = mConnection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void executeOrThrow(String sql) {
+        try {
+            execute(sql);
+        } catch (java.sql.SQLException e) {
+            throw toSQLiteException(e, sql);
+        }
+    }
+
+    /**
+     * @return the cached statement for the sql, with the arguments bound;
+     *         called with mLock held
+     */
+    private PreparedStatement prepare(String sql, Object[] bindArgs) throws java.sql.SQLException {
+        if (!mOpen) {
+            throw new IllegalStateException("attempt to re-open an already-closed object: "
+                    + mPath);
+        }
+        PreparedStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mStatements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        if (bindArgs != null) {
+            for (int i = 0; i < bindArgs.length; i++) {
+                bind(statement, i + 1, bindArgs[i]);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Binds a value with the type android would give it.
+     */
+    private static void bind(PreparedStatement statement, int index, Object value)
+            throws java.sql.SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.NULL);
+        } else if (value instanceof byte[]) {
+            statement.setBytes(index, (byte[]) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.setDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.setLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.setLong(index, ((Boolean) value) ? 1 : 0);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    private static SQLiteException toSQLiteException(java.sql.SQLException e, String sql) {
+        final String message = e.getMessage() + ", while executing: " + sql;
+        if ((e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT) {
+            return new SQLiteConstraintException(message, e);
+        }
+        return new SQLiteException(message, e);
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (java.sql.SQLException e) {
+            // the statement is dropped either way
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteDatabase: " + mPath;
+    }
+
+    private static class Transaction {
+
+        Transaction mParent;
+
+        boolean mExclusive;
+
+        boolean mMarkedSuccessful;
+
+        boolean mChildFailed;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * Stand-in for the android open helper: opens the database in the context's
+ * database directory and creates or upgrades it, in a transaction, to the
+ * version asked for. The version is sqlite's user version, as on android.
+ */
+public abstract class SQLiteOpenHelper {
+
+    private final Context mContext;
+
+    private final String mName;
+
+    private final SQLiteDatabase.CursorFactory mFactory;
+
+    private final int mNewVersion;
+
+    private SQLiteDatabase mDatabase;
+
+    private boolean mIsInitializing;
+
+    /**
+     * @param name the name of the database file, or null for an in-memory
+     *            database
+     */
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory,
+            int version) {
+        if (version < 1) {
+            throw new IllegalArgumentException("Version must be >= 1, was " + version);
+        }
+        mContext = context;
+        mName = name;
+        mFactory = factory;
+        mNewVersion = version;
+    }
+
+    public String getDatabaseName() {
+        return mName;
+    }
+
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        return getDatabaseLocked();
+    }
+
+    public synchronized SQLiteDatabase getReadableDatabase() {
+        return getDatabaseLocked();
+    }
+
+    private SQLiteDatabase getDatabaseLocked() {
+        if (mDatabase != null && mDatabase.isOpen()) {
+            return mDatabase;
+        }
+        if (mIsInitializing) {
+            throw new IllegalStateException("getDatabase called recursively");
+        }
+        SQLiteDatabase db = null;
+        try {
+            mIsInitializing = true;
+            db = mName == null ? SQLiteDatabase.create(null) : mContext.openOrCreateDatabase(mName,
+                    Context.MODE_PRIVATE, mFactory);
+            onConfigure(db);
+            final int version = db.getVersion();
+            if (version != mNewVersion) {
+                db.beginTransaction();
+                try {
+                    if (version == 0) {
+                        onCreate(db);
+                    } else if (version > mNewVersion) {
+                        onDowngrade(db, version, mNewVersion);
+                    } else {
+                        onUpgrade(db, version, mNewVersion);
+                    }
+                    db.setVersion(mNewVersion);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            onOpen(db);
+            mDatabase = db;
+            return db;
+        } finally {
+            mIsInitializing = false;
+            if (db != null && db != mDatabase) {
+                db.close();
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (mIsInitializing) {
+            throw new IllegalStateException("Closed during initialization");
+        }
+        if (mDatabase != null && mDatabase.isOpen()) {
+            mDatabase.close();
+            mDatabase = null;
+        }
+    }
+
+    public void onConfigure(SQLiteDatabase db) {
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        throw new SQLiteException("Can't downgrade database from version " + oldVersion + " to "
+                + newVersion);
+    }
+
+    public void onOpen(SQLiteDatabase db) {
+    }
+}
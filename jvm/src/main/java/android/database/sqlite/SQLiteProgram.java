@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+/**
+ * Stand-in for the android base of compiled statements: the sql and the
+ * values bound to its parameters.
+ */
+public abstract class SQLiteProgram {
+
+    final SQLiteDatabase mDatabase;
+
+    final String mSql;
+
+    final Object[] mBindArgs;
+
+    SQLiteProgram(SQLiteDatabase db, String sql) {
+        mDatabase = db;
+        mSql = sql.trim();
+        mBindArgs = new Object[db.getParameterCount(mSql)];
+    }
+
+    public void bindNull(int index) {
+        bind(index, null);
+    }
+
+    public void bindLong(int index, long value) {
+        bind(index, value);
+    }
+
+    public void bindDouble(int index, double value) {
+        bind(index, value);
+    }
+
+    public void bindString(int index, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        }
+        bind(index, value);
+    }
+
+    public void bindBlob(int index, byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        }
+        bind(index, value);
+    }
+
+    public void bindAllArgsAsStrings(String[] bindArgs) {
+        if (bindArgs != null) {
+            for (int i = bindArgs.length; i != 0; i--) {
+                bindString(i, bindArgs[i - 1]);
+            }
+        }
+    }
+
+    public void clearBindings() {
+        for (int i = 0; i < mBindArgs.length; i++) {
+            mBindArgs[i] = null;
+        }
+    }
+
+    public void close() {
+        clearBindings();
+    }
+
+    private void bind(int index, Object value) {
+        if (index < 1 || index > mBindArgs.length) {
+            throw new IllegalArgumentException("Cannot bind argument at index " + index
+                    + " because the index is out of range.  The statement has "
+                    + mBindArgs.length + " parameters.");
+        }
+        mBindArgs[index - 1] = value;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for the android query builder, building the same sql.
+ */
+public class SQLiteQueryBuilder {
+
+    private static final Pattern sLimitPattern = Pattern.compile("\\s*\\d+\\s*(,\\s*\\d+\\s*)?");
+
+    private Map<String, String> mProjectionMap;
+
+    private String mTables = "";
+
+    private StringBuilder mWhereClause;
+
+    private boolean mDistinct;
+
+    public void setDistinct(boolean distinct) {
+        mDistinct = distinct;
+    }
+
+    public String getTables() {
+        return mTables;
+    }
+
+    public void setTables(String inTables) {
+        mTables = inTables;
+    }
+
+    /**
+     * Adds a condition to the where clause, ANDed with the selection of the
+     * query.
+     */
+    public void appendWhere(CharSequence inWhere) {
+        if (mWhereClause == null) {
+            mWhereClause = new StringBuilder(inWhere.length() + 16);
+        }
+        if (mWhereClause.length() == 0) {
+            mWhereClause.append('(');
+        }
+        mWhereClause.append(inWhere);
+    }
+
+    public void appendWhereEscapeString(String inWhere) {
+        if (mWhereClause == null) {
+            mWhereClause = new StringBuilder(inWhere.length() + 16);
+        }
+        if (mWhereClause.length() == 0) {
+            mWhereClause.append('(');
+        }
+        mWhereClause.append('\'').append(inWhere.replace("'", "''")).append('\'');
+    }
+
+    public void setProjectionMap(Map<String, String> columnMap) {
+        mProjectionMap = columnMap;
+    }
+
+    public static String buildQueryString(boolean distinct, String tables, String[] columns,
+            String where, String groupBy, String having, String orderBy, String limit) {
+        if (TextUtils.isEmpty(groupBy) && !TextUtils.isEmpty(having)) {
+            throw new IllegalArgumentException(
+                    "HAVING clauses are only permitted when using a groupBy clause");
+        }
+        if (!TextUtils.isEmpty(limit) && !sLimitPattern.matcher(limit).matches()) {
+            throw new IllegalArgumentException("invalid LIMIT clauses:" + limit);
+        }
+
+        final StringBuilder query = new StringBuilder(120);
+        query.append("SELECT ");
+        if (distinct) {
+            query.append("DISTINCT ");
+        }
+        if (columns != null && columns.length != 0) {
+            appendColumns(query, columns);
+        } else {
+            query.append("* ");
+        }
+        query.append("FROM ");
+        query.append(tables);
+        appendClause(query, " WHERE ", where);
+        appendClause(query, " GROUP BY ", groupBy);
+        appendClause(query, " HAVING ", having);
+        appendClause(query, " ORDER BY ", orderBy);
+        appendClause(query, " LIMIT ", limit);
+        return query.toString();
+    }
+
+    private static void appendClause(StringBuilder s, String name, String clause) {
+        if (!TextUtils.isEmpty(clause)) {
+            s.append(name);
+            s.append(clause);
+        }
+    }
+
+    public static void appendColumns(StringBuilder s, String[] columns) {
+        final int n = columns.length;
+        for (int i = 0; i < n; i++) {
+            final String column = columns[i];
+            if (column != null) {
+                if (i > 0) {
+                    s.append(", ");
+                }
+                s.append(column);
+            }
+        }
+        s.append(' ');
+    }
+
+    public Cursor query(SQLiteDatabase db, String[] projectionIn, String selection,
+            String[] selectionArgs, String groupBy, String having, String sortOrder) {
+        return query(db, projectionIn, selection, selectionArgs, groupBy, having, sortOrder, null);
+    }
+
+    public Cursor query(SQLiteDatabase db, String[] projectionIn, String selection,
+            String[] selectionArgs, String groupBy, String having, String sortOrder,
+            String limit) {
+        if (mTables == null) {
+            return null;
+        }
+        return db.rawQuery(buildQuery(projectionIn, selection, groupBy, having, sortOrder,
+                limit), selectionArgs);
+    }
+
+    public String buildQuery(String[] projectionIn, String selection, String groupBy,
+            String having, String sortOrder, String limit) {
+        final String[] projection = computeProjection(projectionIn);
+        final StringBuilder where = new StringBuilder();
+        final boolean hasBaseWhereClause = mWhereClause != null && mWhereClause.length() > 0;
+        if (hasBaseWhereClause) {
+            where.append(mWhereClause.toString());
+            where.append(')');
+        }
+        if (selection != null && selection.length() > 0) {
+            if (hasBaseWhereClause) {
+                where.append(" AND ");
+            }
+            where.append('(');
+            where.append(selection);
+            where.append(')');
+        }
+        return buildQueryString(mDistinct, mTables, projection, where.toString(), groupBy,
+                having, sortOrder, limit);
+    }
+
+    private String[] computeProjection(String[] projectionIn) {
+        if (projectionIn != null && projectionIn.length > 0) {
+            if (mProjectionMap == null) {
+                return projectionIn;
+            }
+            final String[] projection = new String[projectionIn.length];
+            for (int i = 0; i < projectionIn.length; i++) {
+                final String userColumn = projectionIn[i];
+                final String column = mProjectionMap.get(userColumn);
+                if (column != null) {
+                    projection[i] = column;
+                } else if (userColumn.contains(" AS ") || userColumn.contains(" as ")) {
+                    projection[i] = userColumn;
+                } else {
+                    throw new IllegalArgumentException("Invalid column " + projectionIn[i]);
+                }
+            }
+            return projection;
+        } else if (mProjectionMap != null) {
+            return mProjectionMap.values().toArray(new String[mProjectionMap.size()]);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+/**
+ * Stand-in for the android compiled statement. The statement is prepared
+ * once per database and kept in its statement cache.
+ */
+public final class SQLiteStatement extends SQLiteProgram {
+
+    SQLiteStatement(SQLiteDatabase db, String sql) {
+        super(db, sql);
+    }
+
+    public void execute() {
+        mDatabase.executeForChangedRowCount(mSql, mBindArgs);
+    }
+
+    /**
+     * @return the number of rows changed
+     */
+    public int executeUpdateDelete() {
+        return mDatabase.executeForChangedRowCount(mSql, mBindArgs);
+    }
+
+    /**
+     * @return the row id of the inserted row, or -1 if none was
+     */
+    public long executeInsert() {
+        return mDatabase.executeForLastInsertedRowId(mSql, mBindArgs);
+    }
+
+    public long simpleQueryForLong() {
+        return mDatabase.executeForLong(mSql, mBindArgs);
+    }
+
+    public String simpleQueryForString() {
+        return mDatabase.executeForString(mSql, mBindArgs);
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteProgram: " + mSql;
+    }
+}
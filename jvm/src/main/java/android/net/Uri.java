@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for the android uri: a hierarchical uri of a scheme, an authority,
+ * a path and a query, kept encoded as android keeps them.
+ */
+public final class Uri implements Comparable<Uri> {
+
+    private static final String ALLOWED = "_-!.~'()*";
+
+    private final String mScheme;
+
+    private final String mAuthority;
+
+    // encoded, either empty or starting with a slash
+    private final String mPath;
+
+    // encoded, or null
+    private final String mQuery;
+
+    private List<String> mPathSegments;
+
+    private Uri(String scheme, String authority, String path, String query) {
+        mScheme = scheme;
+        mAuthority = authority;
+        mPath = path != null ? path : "";
+        mQuery = query;
+    }
+
+    /**
+     * Parses an encoded uri of the form scheme://authority/path?query.
+     */
+    public static Uri parse(String uriString) {
+        String rest = uriString;
+        String scheme = null;
+        final int colon = rest.indexOf(':');
+        if (colon > 0 && rest.indexOf('/') > colon) {
+            scheme = rest.substring(0, colon);
+            rest = rest.substring(colon + 1);
+        }
+        String query = null;
+        final int question = rest.indexOf('?');
+        if (question >= 0) {
+            query = rest.substring(question + 1);
+            rest = rest.substring(0, question);
+        }
+        String authority = null;
+        if (rest.startsWith("//")) {
+            final int slash = rest.indexOf('/', 2);
+            authority = slash >= 0 ? rest.substring(2, slash) : rest.substring(2);
+            rest = slash >= 0 ? rest.substring(slash) : "";
+        }
+        return new Uri(scheme, authority, rest, query);
+    }
+
+    public String getScheme() {
+        return mScheme;
+    }
+
+    public String getAuthority() {
+        return mAuthority;
+    }
+
+    public String getPath() {
+        return decode(mPath);
+    }
+
+    public String getEncodedPath() {
+        return mPath;
+    }
+
+    public String getQuery() {
+        return mQuery != null ? decode(mQuery) : null;
+    }
+
+    /**
+     * @return the decoded path segments, leaving out empty ones
+     */
+    public List<String> getPathSegments() {
+        List<String> segments = mPathSegments;
+        if (segments == null) {
+            segments = new ArrayList<String>();
+            for (String segment : mPath.split("/")) {
+                if (segment.length() > 0) {
+                    segments.add(decode(segment));
+                }
+            }
+            mPathSegments = segments = Collections.unmodifiableList(segments);
+        }
+        return segments;
+    }
+
+    public String getLastPathSegment() {
+        final List<String> segments = getPathSegments();
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    /**
+     * @return the decoded value of the first query parameter with the given
+     *         name, or null if there is none
+     */
+    public String getQueryParameter(String key) {
+        if (mQuery == null) {
+            return null;
+        }
+        final String encodedKey = encode(key);
+        for (String parameter : mQuery.split("&")) {
+            final int equals = parameter.indexOf('=');
+            final String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+            if (name.equals(encodedKey)) {
+                return equals >= 0 ? decode(parameter.substring(equals + 1)) : "";
+            }
+        }
+        return null;
+    }
+
+    public Builder buildUpon() {
+        return new Builder().scheme(mScheme).encodedAuthority(mAuthority).encodedPath(mPath)
+                .encodedQuery(mQuery);
+    }
+
+    /**
+     * Encodes all characters but letters, digits and "_-!.~'()*", as android
+     * does.
+     */
+    public static String encode(String s) {
+        if (s == null) {
+            return null;
+        }
+        final StringBuilder encoded = new StringBuilder(s.length());
+        final byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        for (byte b : bytes) {
+            final char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || ALLOWED.indexOf(c) >= 0) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Decodes %-escaped UTF-8; unlike form decoding, '+' stays as it is.
+     */
+    public static String decode(String s) {
+        if (s == null || s.indexOf('%') < 0) {
+            return s;
+        }
+        final StringBuilder decoded = new StringBuilder(s.length());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < s.length()) {
+            if (s.charAt(i) == '%' && i + 2 < s.length()) {
+                // a run of escapes is one sequence of UTF-8 bytes
+                bytes.reset();
+                while (i + 2 < s.length() && s.charAt(i) == '%') {
+                    bytes.write(Integer.parseInt(s.substring(i + 1, i + 3), 16));
+                    i += 3;
+                }
+                try {
+                    decoded.append(bytes.toString("UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            } else {
+                decoded.append(s.charAt(i++));
+            }
+        }
+        return decoded.toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder uri = new StringBuilder();
+        if (mScheme != null) {
+            uri.append(mScheme).append(':');
+        }
+        if (mAuthority != null) {
+            uri.append("//").append(mAuthority);
+        }
+        uri.append(mPath);
+        if (mQuery != null) {
+            uri.append('?').append(mQuery);
+        }
+        return uri.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public int compareTo(Uri other) {
+        return toString().compareTo(other.toString());
+    }
+
+    /**
+     * Builds a uri from its parts, encoding those not given encoded.
+     */
+    public static final class Builder {
+
+        private String mScheme;
+
+        private String mAuthority;
+
+        private StringBuilder mPath = new StringBuilder();
+
+        private StringBuilder mQuery;
+
+        public Builder scheme(String scheme) {
+            mScheme = scheme;
+            return this;
+        }
+
+        public Builder authority(String authority) {
+            return encodedAuthority(encode(authority));
+        }
+
+        public Builder encodedAuthority(String authority) {
+            mAuthority = authority;
+            return this;
+        }
+
+        public Builder path(String path) {
+            return encodedPath(path != null ? encode(path).replace("%2F", "/") : null);
+        }
+
+        public Builder encodedPath(String path) {
+            mPath = new StringBuilder();
+            if (path != null && path.length() > 0) {
+                if (path.charAt(0) != '/') {
+                    mPath.append('/');
+                }
+                mPath.append(path);
+            }
+            return this;
+        }
+
+        public Builder appendPath(String segment) {
+            return appendEncodedPath(encode(segment));
+        }
+
+        public Builder appendEncodedPath(String segment) {
+            if (mPath.length() == 0 || mPath.charAt(mPath.length() - 1) != '/') {
+                mPath.append('/');
+            }
+            mPath.append(segment);
+            return this;
+        }
+
+        public Builder encodedQuery(String query) {
+            mQuery = query != null ? new StringBuilder(query) : null;
+            return this;
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            if (mQuery == null) {
+                mQuery = new StringBuilder();
+            } else {
+                mQuery.append('&');
+            }
+            mQuery.append(encode(key)).append('=').append(encode(value));
+            return this;
+        }
+
+        public Builder clearQuery() {
+            mQuery = null;
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(mScheme, mAuthority, mPath.toString(),
+                    mQuery != null ? mQuery.toString() : null);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.text;
+
+import java.util.Iterator;
+
+/**
+ * Stand-in for the android text helpers.
+ */
+public class TextUtils {
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        if (a == b) {
+            return true;
+        }
+        if (a != null && b != null && a.length() == b.length()) {
+            return a.toString().equals(b.toString());
+        }
+        return false;
+    }
+
+    public static String join(CharSequence delimiter, Object[] tokens) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            if (i > 0) {
+                sb.append(delimiter);
+            }
+            sb.append(tokens[i]);
+        }
+        return sb.toString();
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static String join(CharSequence delimiter, Iterable tokens) {
+        final StringBuilder sb = new StringBuilder();
+        final Iterator it = tokens.iterator();
+        while (it.hasNext()) {
+            sb.append(it.next());
+            if (it.hasNext()) {
+                sb.append(delimiter);
+            }
+        }
+        return sb.toString();
+    }
+}
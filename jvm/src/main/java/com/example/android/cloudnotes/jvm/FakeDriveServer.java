@@ -0,0 +1,978 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.jvm;
+
+import com.example.android.cloudnotes.service.AccessTokenCache;
+import com.example.android.cloudnotes.service.DriveClient;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.About;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process stand-in for the parts of the drive v2 api the sync uses:
+ * listing files, creating, updating, renaming, trashing and deleting them,
+ * resumable and simple uploads, downloads, the changes feed and batches.
+ * Files are kept in memory. Point a sync at {@link #getRootUrl()} through
+ * the driveRootUrl setting.
+ * <p>
+ * Every request can be delayed by a fixed latency, and the requests and body
+ * bytes that go over the wire are counted. Partial response selectors are
+ * ignored, so responses carry every field the sync reads.
+ */
+public class FakeDriveServer {
+
+    private static final String API_PATH = "/drive/v2/";
+    private static final String UPLOAD_PATH = "/upload/drive/v2/";
+    private static final String DOWNLOAD_PATH = "/download/";
+
+    private static final String JSON_TYPE = "application/json; charset=UTF-8";
+
+    // responses at least this large are gzipped for clients that accept it
+    private static final int GZIP_THRESHOLD = 1024;
+
+    private static final int STATUS_RESUME_INCOMPLETE = 308;
+
+    private static final Pattern CLIENT_ID_QUERY = Pattern.compile("value='([^']*)'");
+
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)");
+
+    private final HttpServer mServer;
+
+    private final ExecutorService mExecutor;
+
+    private final JsonFactory mJsonFactory = new JacksonFactory();
+
+    private final String mRootUrl;
+
+    private volatile long mLatency;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    // guarded by mLock
+    private final Object mLock = new Object();
+    private final LinkedHashMap<String, StoredFile> mFiles =
+            new LinkedHashMap<String, StoredFile>();
+    // the file ids in order of creation, for paging through listings
+    private final ArrayList<String> mFileOrder = new ArrayList<String>();
+    // the latest change of each file, by change id
+    private final TreeMap<Long, String> mChanges = new TreeMap<Long, String>();
+    private final HashMap<String, Long> mChangeIds = new HashMap<String, Long>();
+    private final HashMap<String, UploadSession> mSessions =
+            new HashMap<String, UploadSession>();
+    private long mLargestChangeId = 1000;
+    private long mNextId = 1;
+
+    /**
+     * A drive file and its content.
+     */
+    private static class StoredFile {
+
+        final File metadata;
+
+        byte[] content = new byte[0];
+
+        // the client id property the file was created with, if any
+        String clientId;
+
+        StoredFile(File metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * A resumable upload under way.
+     */
+    private static class UploadSession {
+
+        // the file being updated, or null to create one
+        final String fileId;
+
+        final File metadata;
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        UploadSession(String fileId, File metadata) {
+            this.fileId = fileId;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * A request, either sent on its own or as part of a batch.
+     */
+    private static class Request {
+
+        final String method;
+
+        final String path;
+
+        final Map<String, String> params;
+
+        // by lower case name
+        final Map<String, String> headers;
+
+        final byte[] body;
+
+        Request(String method, URI uri, Map<String, String> headers, byte[] body)
+                throws IOException {
+            this.headers = headers;
+            // method overrides are how patches get through some transports
+            final String override = headers.get("x-http-method-override");
+            this.method = override != null ? override : method;
+            this.path = uri.getRawPath();
+            this.params = parseQuery(uri.getRawQuery());
+            this.body = "gzip".equalsIgnoreCase(headers.get("content-encoding")) ? gunzip(body)
+                    : body;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    /**
+     * A response to a {@link Request}.
+     */
+    private static class Response {
+
+        final int status;
+
+        final String contentType;
+
+        final byte[] body;
+
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    private FakeDriveServer(HttpServer server) {
+        mServer = server;
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "FakeDrive " + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mRootUrl = "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+                + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return a running server on a free port of the loopback interface
+     */
+    public static FakeDriveServer start() throws IOException {
+        // read once, when the first server is made: without it small
+        // responses wait on delayed acks and every request takes 40ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        final HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        final FakeDriveServer drive = new FakeDriveServer(server);
+        server.start();
+        return drive;
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return a client for syncs against a fake server, with a token that is
+     *         never checked
+     */
+    public static DriveClient newClient() {
+        return new DriveClient(new NetHttpTransport(), new JacksonFactory(),
+                new AccessTokenCache(new MemoryPreferences(), new AccessTokenCache.TokenSource() {
+                    @Override
+                    public String fetchToken(String accountName) {
+                        return "token";
+                    }
+
+                    @Override
+                    public void invalidateToken(String token) {
+                    }
+                }));
+    }
+
+    /**
+     * @return the root url of the api, to use as the driveRootUrl setting
+     */
+    public String getRootUrl() {
+        return mRootUrl;
+    }
+
+    /**
+     * Delays every request by the given time, like a distant server would.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        mLatency = unit.toMillis(latency);
+    }
+
+    /**
+     * @return the number of http requests served, a batch counting as one
+     */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return the number of request body bytes received, as sent
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    /**
+     * @return the number of response body bytes sent, after compression
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public void resetCounts() {
+        mRequests.set(0);
+        mBytesReceived.set(0);
+        mBytesSent.set(0);
+    }
+
+    /**
+     * Creates a file, as if another device had uploaded it.
+     * 
+     * @return the id of the file
+     */
+    public String addFile(String title, String content) {
+        final File metadata = new File();
+        metadata.setTitle(title);
+        metadata.setMimeType("text/plain");
+        synchronized (mLock) {
+            return save(null, metadata, toBytes(content), null).metadata.getId();
+        }
+    }
+
+    /**
+     * Replaces the content of a file, as if another device had edited it.
+     */
+    public void setContent(String id, String content) {
+        synchronized (mLock) {
+            save(id, new File(), toBytes(content), null);
+        }
+    }
+
+    /**
+     * Moves a file to the trash, as if another device had deleted it.
+     */
+    public void trash(String id) {
+        synchronized (mLock) {
+            trashFile(id);
+        }
+    }
+
+    /**
+     * @return the number of files, trashed ones included
+     */
+    public int getFileCount() {
+        synchronized (mLock) {
+            return mFiles.size();
+        }
+    }
+
+    /**
+     * @return a copy of the metadata of the file, or null if there is none
+     */
+    public File getFile(String id) {
+        synchronized (mLock) {
+            final StoredFile file = mFiles.get(id);
+            return file != null ? (File) file.metadata.clone() : null;
+        }
+    }
+
+    /**
+     * @return the metadata of every file, trashed ones included
+     */
+    public List<File> getFiles() {
+        synchronized (mLock) {
+            final List<File> files = new ArrayList<File>(mFiles.size());
+            for (StoredFile file : mFiles.values()) {
+                files.add((File) file.metadata.clone());
+            }
+            return files;
+        }
+    }
+
+    /**
+     * @return the content of the file, or null if there is none
+     */
+    public String getContent(String id) {
+        synchronized (mLock) {
+            final StoredFile file = mFiles.get(id);
+            return file != null ? fromBytes(file.content) : null;
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            mRequests.incrementAndGet();
+            final byte[] body = readFully(exchange.getRequestBody());
+            mBytesReceived.addAndGet(body.length);
+            if (mLatency > 0) {
+                Thread.sleep(mLatency);
+            }
+            final Map<String, String> headers = new HashMap<String, String>();
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders()
+                    .entrySet()) {
+                headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+            final Request request = new Request(exchange.getRequestMethod(),
+                    exchange.getRequestURI(), headers, body);
+            final Response response = isBatch(request) ? serveBatch(request) : dispatch(request);
+            final String acceptEncoding = request.getHeader("accept-encoding");
+            send(exchange, response, acceptEncoding != null && acceptEncoding.contains("gzip"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            send(exchange, error(500, e.toString()), false);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, Response response, boolean gzip)
+            throws IOException {
+        final Headers headers = exchange.getResponseHeaders();
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            headers.set(header.getKey(), header.getValue());
+        }
+        byte[] body = response.body;
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(response.status, -1);
+            return;
+        }
+        headers.set("Content-Type", response.contentType);
+        if (gzip && body.length >= GZIP_THRESHOLD) {
+            body = gzip(body);
+            headers.set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(response.status, body.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+        mBytesSent.addAndGet(body.length);
+    }
+
+    private static boolean isBatch(Request request) {
+        return "POST".equals(request.method) && request.path.endsWith("/batch");
+    }
+
+    private Response dispatch(Request request) throws IOException {
+        final String path = request.path;
+        if (path.startsWith(API_PATH)) {
+            final String[] segments = path.substring(API_PATH.length()).split("/");
+            if (segments[0].equals("about") && segments.length == 1) {
+                return about();
+            } else if (segments[0].equals("changes") && segments.length == 1) {
+                return listChanges(request);
+            } else if (segments[0].equals("files")) {
+                if (segments.length == 1) {
+                    if ("GET".equals(request.method)) {
+                        return listFiles(request);
+                    } else if ("POST".equals(request.method)) {
+                        return insert(request);
+                    }
+                } else if (segments.length == 2) {
+                    return serveFile(request, decode(segments[1]));
+                } else if (segments.length == 3 && segments[2].equals("trash")
+                        && "POST".equals(request.method)) {
+                    synchronized (mLock) {
+                        return fileResponse(trashFile(decode(segments[1])));
+                    }
+                }
+            }
+        } else if (path.startsWith(UPLOAD_PATH + "files")) {
+            final String rest = path.substring((UPLOAD_PATH + "files").length());
+            return upload(request, rest.startsWith("/") ? decode(rest.substring(1)) : null);
+        } else if (path.startsWith(DOWNLOAD_PATH)) {
+            return download(request, decode(path.substring(DOWNLOAD_PATH.length())));
+        }
+        return error(404, "No such method: " + request.method + " " + path);
+    }
+
+    private Response about() {
+        final About about = new About();
+        synchronized (mLock) {
+            about.setLargestChangeId(mLargestChangeId);
+        }
+        return json(200, about);
+    }
+
+    private Response listFiles(Request request) {
+        final int maxResults = getInt(request, "maxResults", 100);
+        final int start = getInt(request, "pageToken", 0);
+        final String q = request.params.get("q");
+        String clientId = null;
+        if (q != null) {
+            final Matcher m = CLIENT_ID_QUERY.matcher(q);
+            if (m.find()) {
+                clientId = m.group(1);
+            }
+        }
+        final boolean skipTrashed = q != null && q.contains("trashed=false");
+
+        final FileList list = new FileList();
+        final List<File> items = new ArrayList<File>();
+        synchronized (mLock) {
+            int next = start;
+            while (next < mFileOrder.size() && items.size() < maxResults) {
+                final StoredFile file = mFiles.get(mFileOrder.get(next++));
+                if (file == null
+                        || (clientId != null && !clientId.equals(file.clientId))
+                        || (skipTrashed && file.metadata.getLabels().getTrashed())) {
+                    continue;
+                }
+                items.add(file.metadata);
+            }
+            if (next < mFileOrder.size()) {
+                list.setNextPageToken(String.valueOf(next));
+            }
+            list.setItems(items);
+            return json(200, list);
+        }
+    }
+
+    private Response listChanges(Request request) {
+        final int maxResults = getInt(request, "maxResults", 100);
+        final String pageToken = request.params.get("pageToken");
+        final long start = pageToken != null ? Long.parseLong(pageToken) : getLong(request,
+                "startChangeId", 0);
+        final boolean includeDeleted = !"false".equals(request.params.get("includeDeleted"));
+
+        final ChangeList list = new ChangeList();
+        final List<Change> items = new ArrayList<Change>();
+        synchronized (mLock) {
+            final Iterator<Map.Entry<Long, String>> changes = mChanges.tailMap(start).entrySet()
+                    .iterator();
+            while (changes.hasNext() && items.size() < maxResults) {
+                final Map.Entry<Long, String> entry = changes.next();
+                final StoredFile file = mFiles.get(entry.getValue());
+                if (file == null && !includeDeleted) {
+                    continue;
+                }
+                final Change change = new Change();
+                change.setId(BigInteger.valueOf(entry.getKey()));
+                change.setFileId(entry.getValue());
+                change.setDeleted(file == null);
+                if (file != null) {
+                    change.setFile(file.metadata);
+                }
+                items.add(change);
+            }
+            if (changes.hasNext()) {
+                list.setNextPageToken(String.valueOf(changes.next().getKey()));
+            }
+            list.setLargestChangeId(BigInteger.valueOf(mLargestChangeId));
+            list.setItems(items);
+            return json(200, list);
+        }
+    }
+
+    private Response insert(Request request) throws IOException {
+        final File metadata = parseFile(request.body);
+        synchronized (mLock) {
+            return fileResponse(save(null, metadata, null, getClientId(metadata)));
+        }
+    }
+
+    private Response serveFile(Request request, String id) throws IOException {
+        synchronized (mLock) {
+            final StoredFile file = mFiles.get(id);
+            if (file == null) {
+                return error(404, "File not found: " + id);
+            }
+            if ("GET".equals(request.method)) {
+                return fileResponse(file);
+            } else if ("DELETE".equals(request.method)) {
+                mFiles.remove(id);
+                recordChange(id);
+                return new Response(204, null, null);
+            } else if ("PUT".equals(request.method) || "PATCH".equals(request.method)) {
+                if (!matchesEtag(request, file)) {
+                    return error(412, "Precondition Failed");
+                }
+                return fileResponse(save(id, parseFile(request.body), null, null));
+            }
+            return error(405, "Method not allowed: " + request.method);
+        }
+    }
+
+    private Response upload(Request request, String id) throws IOException {
+        final String uploadType = request.params.get("uploadType");
+        final String sessionId = request.params.get("upload_id");
+        if (sessionId != null) {
+            return uploadChunk(request, sessionId);
+        }
+        synchronized (mLock) {
+            final StoredFile file = id != null ? mFiles.get(id) : null;
+            if (id != null && file == null) {
+                return error(404, "File not found: " + id);
+            }
+            if (file != null && !matchesEtag(request, file)) {
+                return error(412, "Precondition Failed");
+            }
+            if ("resumable".equals(uploadType)) {
+                final String newSessionId = "session" + mNextId++;
+                mSessions.put(newSessionId, new UploadSession(id, parseFile(request.body)));
+                return new Response(200, null, null).header("Location", mRootUrl
+                        + UPLOAD_PATH.substring(1) + "files" + (id != null ? "/" + id : "")
+                        + "?uploadType=resumable&upload_id=" + newSessionId);
+            } else if ("multipart".equals(uploadType)) {
+                final List<byte[]> parts = getParts(request);
+                if (parts.size() != 2) {
+                    return error(400, "Expected metadata and media, got " + parts.size()
+                            + " parts");
+                }
+                final File metadata = parseFile(parts.get(0));
+                return fileResponse(save(id, metadata, parts.get(1),
+                        id == null ? getClientId(metadata) : null));
+            } else if ("media".equals(uploadType)) {
+                final File metadata = new File();
+                if (id == null) {
+                    metadata.setTitle("Untitled");
+                }
+                return fileResponse(save(id, metadata, request.body, null));
+            }
+        }
+        return error(400, "Unsupported upload type: " + uploadType);
+    }
+
+    private Response uploadChunk(Request request, String sessionId) {
+        synchronized (mLock) {
+            final UploadSession session = mSessions.get(sessionId);
+            if (session == null) {
+                return error(404, "No such upload session: " + sessionId);
+            }
+            final String range = request.getHeader("content-range");
+            long total = -1;
+            if (range != null) {
+                // "bytes <first>-<last>/<total>" or "bytes */<total>"
+                final String spec = range.substring(range.indexOf(' ') + 1);
+                final String totalSpec = spec.substring(spec.indexOf('/') + 1);
+                if (!totalSpec.equals("*")) {
+                    total = Long.parseLong(totalSpec);
+                }
+                if (!spec.startsWith("*")) {
+                    final int first = Integer.parseInt(spec.substring(0, spec.indexOf('-')));
+                    if (first > session.received.size()) {
+                        return error(400, "Chunk starts after the bytes received");
+                    }
+                    // drop what is sent again
+                    final byte[] kept = session.received.toByteArray();
+                    session.received.reset();
+                    session.received.write(kept, 0, first);
+                    session.received.write(request.body, 0, request.body.length);
+                }
+            } else {
+                session.received.write(request.body, 0, request.body.length);
+                total = session.received.size();
+            }
+            if (total < 0 || session.received.size() < total) {
+                final Response incomplete = new Response(STATUS_RESUME_INCOMPLETE, null, null);
+                if (session.received.size() > 0) {
+                    incomplete.header("Range", "bytes=0-" + (session.received.size() - 1));
+                }
+                return incomplete;
+            }
+            mSessions.remove(sessionId);
+            final File metadata = session.metadata != null ? session.metadata : new File();
+            return fileResponse(save(session.fileId, metadata, session.received.toByteArray(),
+                    session.fileId == null ? getClientId(metadata) : null));
+        }
+    }
+
+    private Response download(Request request, String id) {
+        synchronized (mLock) {
+            final StoredFile file = mFiles.get(id);
+            if (file == null) {
+                return error(404, "File not found: " + id);
+            }
+            if (file.metadata.getEtag().equals(request.getHeader("if-none-match"))) {
+                return new Response(304, null, null);
+            }
+            return new Response(200, file.metadata.getMimeType(), file.content);
+        }
+    }
+
+    private Response serveBatch(Request request) throws IOException {
+        final Matcher m = BOUNDARY.matcher(request.getHeader("content-type"));
+        if (!m.find()) {
+            return error(400, "Not a multipart request");
+        }
+        final String delimiter = "--" + m.group(1);
+        final String responseBoundary = "batch_" + mNextId;
+        final StringBuilder out = new StringBuilder();
+        // latin-1 keeps each byte as one char, so bodies survive as they are
+        final String body = new String(request.body, "ISO-8859-1");
+        int part = 0;
+        for (String chunk : body.split(Pattern.quote(delimiter))) {
+            if (chunk.startsWith("--") || chunk.trim().length() == 0) {
+                continue;
+            }
+            final Response response = dispatch(parsePart(chunk));
+            out.append("--").append(responseBoundary).append("\r\n");
+            out.append("Content-Type: application/http\r\n");
+            out.append("Content-ID: response-").append(++part).append("\r\n\r\n");
+            out.append("HTTP/1.1 ").append(response.status).append(' ')
+                    .append(reason(response.status)).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                out.append(header.getKey()).append(": ").append(header.getValue())
+                        .append("\r\n");
+            }
+            if (response.body != null) {
+                out.append("Content-Type: ").append(response.contentType).append("\r\n");
+                out.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+                out.append(new String(response.body, "ISO-8859-1"));
+            } else {
+                out.append("\r\n");
+            }
+            out.append("\r\n");
+        }
+        out.append("--").append(responseBoundary).append("--\r\n");
+        return new Response(200, "multipart/mixed; boundary=" + responseBoundary, out
+                .toString().getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * @return the bodies of the parts of a multipart request
+     */
+    private static List<byte[]> getParts(Request request) throws IOException {
+        final List<byte[]> parts = new ArrayList<byte[]>();
+        final Matcher m = BOUNDARY.matcher(request.getHeader("content-type"));
+        if (!m.find()) {
+            return parts;
+        }
+        final String body = new String(request.body, "ISO-8859-1");
+        for (String chunk : body.split(Pattern.quote("--" + m.group(1)))) {
+            final int start = chunk.indexOf("\r\n\r\n");
+            if (chunk.startsWith("--") || start < 0) {
+                continue;
+            }
+            String content = chunk.substring(start + 4);
+            if (content.endsWith("\r\n")) {
+                content = content.substring(0, content.length() - 2);
+            }
+            parts.add(content.getBytes("ISO-8859-1"));
+        }
+        return parts;
+    }
+
+    /**
+     * @param chunk a part of a batch, from after its boundary to before the
+     *            next
+     */
+    private static Request parsePart(String chunk) throws IOException {
+        // the part's own headers, then the request
+        int start = chunk.indexOf("\r\n\r\n") + 4;
+        final int lineEnd = chunk.indexOf("\r\n", start);
+        final String[] requestLine = chunk.substring(start, lineEnd).split(" ");
+        final int headersEnd = chunk.indexOf("\r\n\r\n", lineEnd);
+        final Map<String, String> headers = new HashMap<String, String>();
+        final int bodyStart;
+        if (headersEnd < 0) {
+            bodyStart = chunk.length();
+        } else {
+            for (String header : chunk.substring(lineEnd + 2, headersEnd).split("\r\n")) {
+                final int colon = header.indexOf(':');
+                if (colon > 0) {
+                    headers.put(header.substring(0, colon).trim().toLowerCase(),
+                            header.substring(colon + 1).trim());
+                }
+            }
+            bodyStart = headersEnd + 4;
+        }
+        String body = chunk.substring(Math.min(bodyStart, chunk.length()));
+        if (body.endsWith("\r\n")) {
+            body = body.substring(0, body.length() - 2);
+        }
+        return new Request(requestLine[0], URI.create(requestLine[1]), headers,
+                body.getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Creates or updates a file. Called with mLock held.
+     * 
+     * @param id the file to update, or null to create one
+     * @param metadata the fields to set
+     * @param content the new content, or null to keep it
+     */
+    private StoredFile save(String id, File metadata, byte[] content, String clientId) {
+        StoredFile file = id != null ? mFiles.get(id) : null;
+        if (file == null) {
+            final File created = new File();
+            created.setId(id != null ? id : "file" + mNextId++);
+            created.setTitle("Untitled");
+            created.setMimeType("text/plain");
+            created.setLabels(new File.Labels().setTrashed(false));
+            created.setDownloadUrl(mRootUrl + DOWNLOAD_PATH.substring(1) + created.getId());
+            file = new StoredFile(created);
+            file.clientId = clientId;
+            mFiles.put(created.getId(), file);
+            mFileOrder.add(created.getId());
+        }
+        if (metadata.getTitle() != null) {
+            file.metadata.setTitle(metadata.getTitle());
+        }
+        if (metadata.getMimeType() != null) {
+            file.metadata.setMimeType(metadata.getMimeType());
+        }
+        if (content != null) {
+            file.content = content;
+        }
+        file.metadata.setFileSize((long) file.content.length);
+        file.metadata.setMd5Checksum(md5(file.content));
+        file.metadata.setModifiedDate(new DateTime(System.currentTimeMillis()));
+        final long changeId = recordChange(file.metadata.getId());
+        file.metadata.setEtag("\"" + file.metadata.getId() + "/" + changeId + "\"");
+        return file;
+    }
+
+    private StoredFile trashFile(String id) {
+        final StoredFile file = mFiles.get(id);
+        if (file != null) {
+            file.metadata.getLabels().setTrashed(true);
+            final long changeId = recordChange(id);
+            file.metadata.setEtag("\"" + id + "/" + changeId + "\"");
+        }
+        return file;
+    }
+
+    private long recordChange(String id) {
+        final long changeId = ++mLargestChangeId;
+        final Long previous = mChangeIds.put(id, changeId);
+        if (previous != null) {
+            mChanges.remove(previous);
+        }
+        mChanges.put(changeId, id);
+        return changeId;
+    }
+
+    private static boolean matchesEtag(Request request, StoredFile file) {
+        final String ifMatch = request.getHeader("if-match");
+        return ifMatch == null || ifMatch.equals(file.metadata.getEtag());
+    }
+
+    /**
+     * @return the client id property of new file metadata, if it has one
+     */
+    private static String getClientId(File metadata) {
+        final Object properties = metadata.get("properties");
+        if (properties instanceof List) {
+            for (Object property : (List<?>) properties) {
+                if (property instanceof Map) {
+                    final Object value = ((Map<?, ?>) property).get("value");
+                    if (value != null) {
+                        return value.toString();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private File parseFile(byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            return new File();
+        }
+        return mJsonFactory.fromInputStream(new ByteArrayInputStream(body), File.class);
+    }
+
+    private Response fileResponse(StoredFile file) {
+        return file != null ? json(200, file.metadata) : error(404, "File not found");
+    }
+
+    private Response json(int status, Object body) {
+        return new Response(status, JSON_TYPE, mJsonFactory.toByteArray(body));
+    }
+
+    private static Response error(int status, String message) {
+        final String body = "{\"error\":{\"code\":" + status + ",\"message\":\""
+                + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}}";
+        return new Response(status, JSON_TYPE, toBytes(body));
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 412:
+                return "Precondition Failed";
+            default:
+                return "Status " + status;
+        }
+    }
+
+    private static int getInt(Request request, String name, int defaultValue) {
+        final String value = request.params.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static long getLong(Request request, String name, long defaultValue) {
+        final String value = request.params.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        final Map<String, String> params = new HashMap<String, String>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String s) throws UnsupportedEncodingException {
+        return URLDecoder.decode(s, "UTF-8");
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String fromBytes(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String md5(byte[] bytes) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        return readFully(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+}
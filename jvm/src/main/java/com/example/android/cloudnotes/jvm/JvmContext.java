@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.jvm;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A context for running the app's provider and sync on a plain JVM. Its
+ * databases live in a directory of their own, preferences are kept in
+ * memory, and its content resolver calls the providers added to it.
+ */
+public class JvmContext extends Context {
+
+    private final File mDataDir;
+
+    private final Map<String, ContentProvider> mProviders =
+            new HashMap<String, ContentProvider>();
+
+    private final Map<String, SharedPreferences> mPreferences =
+            new HashMap<String, SharedPreferences>();
+
+    private final List<SQLiteDatabase> mDatabases = new ArrayList<SQLiteDatabase>();
+
+    private final ContentResolver mResolver = new ContentResolver() {
+        @Override
+        protected ContentProvider acquireProvider(String authority) {
+            synchronized (mProviders) {
+                return mProviders.get(authority);
+            }
+        }
+    };
+
+    /**
+     * @param dataDir the directory holding the databases
+     */
+    public JvmContext(File dataDir) {
+        mDataDir = dataDir;
+    }
+
+    /**
+     * @return a context whose data goes to a new temporary directory
+     */
+    public static JvmContext createTemporary() throws IOException {
+        final File dir = File.createTempFile("cloudnotes", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return new JvmContext(dir);
+    }
+
+    /**
+     * Creates a provider and makes it available to the content resolver.
+     */
+    public <T extends ContentProvider> T addProvider(String authority, T provider) {
+        provider.attachInfo(this);
+        synchronized (mProviders) {
+            mProviders.put(authority, provider);
+        }
+        return provider;
+    }
+
+    /**
+     * Shuts the providers down, closes the databases and deletes the data
+     * directory.
+     */
+    public void close() {
+        synchronized (mProviders) {
+            for (ContentProvider provider : mProviders.values()) {
+                provider.shutdown();
+            }
+            mProviders.clear();
+        }
+        synchronized (mDatabases) {
+            for (SQLiteDatabase db : mDatabases) {
+                db.close();
+            }
+            mDatabases.clear();
+        }
+        delete(mDataDir);
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.example.android.cloudnotes";
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        synchronized (mPreferences) {
+            SharedPreferences prefs = mPreferences.get(name);
+            if (prefs == null) {
+                prefs = new MemoryPreferences();
+                mPreferences.put(name, prefs);
+            }
+            return prefs;
+        }
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return new File(new File(mDataDir, "databases"), name);
+    }
+
+    @Override
+    public File getCacheDir() {
+        final File dir = new File(mDataDir, "cache");
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+            SQLiteDatabase.CursorFactory factory) {
+        final File file = getDatabasePath(name);
+        file.getParentFile().mkdirs();
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, factory);
+        synchronized (mDatabases) {
+            mDatabases.add(db);
+        }
+        return db;
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        final File file = getDatabasePath(name);
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        new File(file.getPath() + "-journal").delete();
+        return file.delete();
+    }
+}
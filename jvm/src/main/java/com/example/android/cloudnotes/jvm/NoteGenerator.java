@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.jvm;
+
+import android.content.ContentValues;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+
+import java.util.Random;
+
+/**
+ * Makes up notes for benchmarks and tests: titles and bodies of words drawn
+ * from a fixed vocabulary, some of them with accents, so the same seed always
+ * gives the same notes.
+ */
+public class NoteGenerator {
+
+    private static final String[] WORDS = {
+            "meeting", "groceries", "idea", "draft", "budget", "travel", "recipe", "book",
+            "call", "project", "review", "garden", "music", "notes", "plan", "report",
+            "weekend", "doctor", "birthday", "holiday", "café", "résumé", "naïve", "façade",
+            "über", "jalapeño", "piñata", "smörgåsbord", "crème", "brûlée", "déjà", "vu",
+            "the", "and", "for", "with", "about", "before", "after", "tomorrow", "today",
+            "monday", "friday", "list", "todo", "follow", "up", "ask", "buy", "send", "read",
+            "write", "fix", "check", "remember", "print", "return", "order", "pack", "email"
+    };
+
+    private final Random mRandom;
+
+    private final int mBodyWords;
+
+    /**
+     * @param bodyWords the average number of words in a body
+     */
+    public NoteGenerator(long seed, int bodyWords) {
+        mRandom = new Random(seed);
+        mBodyWords = bodyWords;
+    }
+
+    /**
+     * @return a word of the vocabulary, to search for
+     */
+    public static String word(int index) {
+        return WORDS[index % WORDS.length];
+    }
+
+    public String nextTitle() {
+        return words(2 + mRandom.nextInt(4));
+    }
+
+    public String nextBody() {
+        return words(mBodyWords / 2 + mRandom.nextInt(mBodyWords + 1));
+    }
+
+    /**
+     * @return the values of a new note, with the given modification time
+     */
+    public ContentValues nextNote(long lastModified) {
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_TITLE, nextTitle());
+        values.put(NotesProvider.KEY_BODY, nextBody());
+        values.put(NotesProvider.KEY_LAST_MODIFIED, lastModified);
+        return values;
+    }
+
+    private String words(int count) {
+        final StringBuilder text = new StringBuilder(count * 8);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                // now and then a new line, as notes have
+                text.append(mRandom.nextInt(12) == 0 ? '\n' : ' ');
+            }
+            text.append(WORDS[mRandom.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.jvm;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.cloudnotes.provider.NotesProvider;
+
+/**
+ * Helpers for filling the provider of a {@link JvmContext}.
+ */
+public class Notes {
+
+    private static final int BULK_SIZE = 1000;
+
+    private Notes() {
+    }
+
+    /**
+     * @return a context with a notes provider, in a temporary directory
+     */
+    public static JvmContext newContext() throws java.io.IOException {
+        final JvmContext context = JvmContext.createTemporary();
+        context.addProvider(NotesProvider.CONTENT_AUTHORITY, new NotesProvider());
+        return context;
+    }
+
+    /**
+     * Inserts generated notes, as the sync would when downloading them, so
+     * they are neither dirty nor in drive.
+     */
+    public static void insert(JvmContext context, NoteGenerator notes, int count) {
+        final Uri uri = NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI);
+        final long now = System.currentTimeMillis();
+        int inserted = 0;
+        while (inserted < count) {
+            final ContentValues[] rows = new ContentValues[Math.min(BULK_SIZE, count - inserted)];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = notes.nextNote(now - count + inserted + i);
+            }
+            inserted += context.getContentResolver().bulkInsert(uri, rows);
+        }
+    }
+}
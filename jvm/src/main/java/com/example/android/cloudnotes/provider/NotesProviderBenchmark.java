@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.cloudnotes.jvm.JvmContext;
+import com.example.android.cloudnotes.jvm.NoteGenerator;
+import com.example.android.cloudnotes.jvm.Notes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the provider calls the list, the editor and the sync make, against a
+ * database of generated notes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotesProviderBenchmark {
+
+    private static final String[] LIST_PROJECTION = {
+            NotesProvider.KEY_ID, NotesProvider.KEY_TITLE
+    };
+
+    private static final String LIST_SORT = NotesProvider.KEY_TITLE + " COLLATE LOCALIZED ASC";
+
+    private static final Uri SYNC_URI = NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI);
+
+    @Param({
+            "1000", "10000"
+    })
+    public int notes;
+
+    private JvmContext mContext;
+
+    private ContentResolver mResolver;
+
+    private NoteGenerator mGenerator;
+
+    private Random mRandom;
+
+    private long mFirstId;
+
+    private int mDriveIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mContext = Notes.newContext();
+        mResolver = mContext.getContentResolver();
+        mGenerator = new NoteGenerator(42, 40);
+        mRandom = new Random(42);
+        Notes.insert(mContext, mGenerator, notes);
+        final Cursor c = mResolver.query(NotesProvider.CONTENT_URI, new String[] {
+            "MIN(" + NotesProvider.KEY_ID + ")"
+        }, null, null, null);
+        try {
+            c.moveToFirst();
+            mFirstId = c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mContext.close();
+    }
+
+    private Uri randomNote() {
+        return ContentUris.withAppendedId(NotesProvider.CONTENT_URI,
+                mFirstId + mRandom.nextInt(notes));
+    }
+
+    /**
+     * The note list: every title, sorted for the user's locale.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int queryList(Blackhole bh) {
+        final Cursor c = mResolver.query(NotesProvider.CONTENT_URI, LIST_PROJECTION, null, null,
+                LIST_SORT);
+        try {
+            while (c.moveToNext()) {
+                bh.consume(c.getString(1));
+            }
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Opening a note in the editor.
+     */
+    @Benchmark
+    public String queryNote() {
+        final Cursor c = mResolver.query(randomNote(), null, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(NotesProvider.BODY_COLUMN) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Saving a new note.
+     */
+    @Benchmark
+    public Uri insert() {
+        return mResolver.insert(NotesProvider.CONTENT_URI, mGenerator.nextNote(0));
+    }
+
+    /**
+     * Saving an edited note, through the compiled statement for it.
+     */
+    @Benchmark
+    public int update() {
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_TITLE, mGenerator.nextTitle());
+        values.put(NotesProvider.KEY_BODY, mGenerator.nextBody());
+        return mResolver.update(randomNote(), values, null, null);
+    }
+
+    /**
+     * The sync recording a note's drive id and version, as the upload batch
+     * does.
+     */
+    @Benchmark
+    public int updateFromSync() {
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_ETAG, Long.toHexString(mRandom.nextLong()));
+        values.put(NotesProvider.KEY_MD5, Long.toHexString(mRandom.nextLong()));
+        return mResolver.update(NotesProvider.asSyncAdapter(randomNote()), values, null, null);
+    }
+
+    /**
+     * Deleting a note that is in drive, which leaves a tombstone in the
+     * outbox. The note is put back by the sync first, so this includes a sync
+     * insert.
+     */
+    @Benchmark
+    public int delete() {
+        final ContentValues values = mGenerator.nextNote(0);
+        values.put(NotesProvider.KEY_DRIVE_ID, "drive" + mDriveIds++);
+        final Uri note = mResolver.insert(SYNC_URI, values);
+        return mResolver.delete(note, null, null);
+    }
+}
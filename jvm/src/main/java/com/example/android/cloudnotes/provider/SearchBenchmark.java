@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.cloudnotes.jvm.JvmContext;
+import com.example.android.cloudnotes.jvm.NoteGenerator;
+import com.example.android.cloudnotes.jvm.Notes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times searching notes through the full-text index, against a LIKE scan of
+ * the notes table as the search would be without it. The search reads at
+ * most {@link NotesProvider#SEARCH_CANDIDATES} matches, so a common word
+ * takes milliseconds however many notes have it, though the first letters
+ * of a word are looked up as every word starting with them; the scan stops
+ * at the first page of matches, so it takes longer the fewer there are.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    private static final String[] LIKE_PROJECTION = {
+            NotesProvider.KEY_ID, NotesProvider.KEY_TITLE
+    };
+
+    private static final String LIKE_SELECTION = NotesProvider.KEY_TITLE + " LIKE ?1 OR "
+            + NotesProvider.KEY_BODY + " LIKE ?1";
+
+    // a word only a few notes have; each generated word is in about half
+    private static final String RARE_WORD = "zeppelin";
+    private static final int RARE_NOTES = 20;
+
+    @Param({
+            "10000", "100000"
+    })
+    public int notes;
+
+    /**
+     * What is typed: a rare word, the same still being typed, a word about
+     * every other note has, two of those, and the first letters of several
+     * common words, which nearly every note matches.
+     */
+    @Param({
+            RARE_WORD, "zepp", "meeting", "smörgåsbord piñata", "re"
+    })
+    public String text;
+
+    private JvmContext mContext;
+
+    private ContentResolver mResolver;
+
+    private Uri mSearchUri;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mContext = Notes.newContext();
+        mResolver = mContext.getContentResolver();
+        final NoteGenerator generator = new NoteGenerator(42, 40);
+        Notes.insert(mContext, generator, notes - RARE_NOTES);
+        final ContentValues[] rare = new ContentValues[RARE_NOTES];
+        for (int i = 0; i < rare.length; i++) {
+            rare[i] = generator.nextNote(i);
+            rare[i].put(NotesProvider.KEY_BODY, generator.nextBody() + " " + RARE_WORD);
+        }
+        mResolver.bulkInsert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), rare);
+        mSearchUri = NotesProvider.searchUri(text);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mContext.close();
+    }
+
+    /**
+     * A search as the search box makes it: the first page of results, with
+     * snippets.
+     */
+    @Benchmark
+    public int search(Blackhole bh) {
+        final Cursor c = mResolver.query(mSearchUri, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                bh.consume(c.getString(2));
+            }
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * The same page found by scanning every note for the last word, without
+     * snippets, for comparison.
+     */
+    @Benchmark
+    public int scan(Blackhole bh) {
+        final String[] words = text.split(" ");
+        final Cursor c = mResolver.query(NotesProvider.CONTENT_URI, LIKE_PROJECTION,
+                LIKE_SELECTION, new String[] {
+                    "%" + words[words.length - 1] + "%"
+                }, NotesProvider.KEY_LAST_MODIFIED + " DESC LIMIT "
+                        + NotesProvider.SEARCH_DEFAULT_LIMIT);
+        try {
+            while (c.moveToNext()) {
+                bh.consume(c.getString(1));
+            }
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
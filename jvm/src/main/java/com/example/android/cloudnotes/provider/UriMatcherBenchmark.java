@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.provider;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the dispatch every provider call starts with: matching the uri to
+ * the table it is for, here through {@link NotesProvider#getType(Uri)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UriMatcherBenchmark {
+
+    private NotesProvider mProvider;
+
+    private Uri[] mUris;
+
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        // getType only needs the matcher, not the database
+        mProvider = new NotesProvider();
+        mUris = new Uri[] {
+                NotesProvider.CONTENT_URI,
+                ContentUris.withAppendedId(NotesProvider.CONTENT_URI, 12345),
+                NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI),
+                NotesProvider.asSyncAdapter(ContentUris.withAppendedId(
+                        NotesProvider.CONTENT_URI, 67890)),
+                NotesProvider.CONFLICTS_URI,
+                NotesProvider.SYNC_STATS_URI,
+                NotesProvider.SYNC_JOURNAL_URI,
+                NotesProvider.OUTBOX_URI
+        };
+    }
+
+    @Benchmark
+    public String matchUri() {
+        final Uri uri = mUris[mNext];
+        mNext = (mNext + 1) % mUris.length;
+        return mProvider.getType(uri);
+    }
+
+    /**
+     * Matching a uri parsed from its string, as uris coming in from other
+     * processes are.
+     */
+    @Benchmark
+    public String matchParsedUri() {
+        final Uri uri = Uri.parse(mUris[mNext].toString());
+        mNext = (mNext + 1) % mUris.length;
+        return mProvider.getType(uri);
+    }
+}
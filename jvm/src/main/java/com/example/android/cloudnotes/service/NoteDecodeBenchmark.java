@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the decode loop of note downloads, the part of the sync's
+ * getFileContents after the response arrived: reading the counted response
+ * stream into a string.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NoteDecodeBenchmark {
+
+    // network reads hand over at most this much at a time
+    private static final int READ_SIZE = 1460;
+
+    @Param({
+            "256", "8192", "65536", "1048576"
+    })
+    public int size;
+
+    /**
+     * "ascii" for plain english notes, "mixed" for one character in eight
+     * taking two or three bytes.
+     */
+    @Param({
+            "ascii", "mixed"
+    })
+    public String text;
+
+    private byte[] mPayload;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(size);
+        final StringBuilder note = new StringBuilder(size);
+        while (note.length() < size) {
+            final int c = random.nextInt(64);
+            if (c == 0) {
+                note.append('\n');
+            } else if (c < 9) {
+                note.append(' ');
+            } else if ("mixed".equals(text) && c < 17) {
+                note.append(c % 2 == 0 ? 'é' : '€');
+            } else {
+                note.append((char) ('a' + c % 26));
+            }
+        }
+        mPayload = note.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Content length known up front, as for drive downloads.
+     */
+    @Benchmark
+    public String decodeSized() throws IOException {
+        return read(mPayload.length);
+    }
+
+    /**
+     * Unknown length, as for gzipped responses.
+     */
+    @Benchmark
+    public String decodeUnsized() throws IOException {
+        return read(-1);
+    }
+
+    private String read(long sizeHint) throws IOException {
+        final ByteCounter.CountingInputStream in = new ByteCounter.CountingInputStream(
+                new PacketInputStream(mPayload));
+        try {
+            return NoteContentReader.get().read(in, sizeHint);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Hands the payload over a packet at a time.
+     */
+    private static class PacketInputStream extends ByteArrayInputStream {
+
+        PacketInputStream(byte[] payload) {
+            super(payload);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, READ_SIZE));
+        }
+    }
+}
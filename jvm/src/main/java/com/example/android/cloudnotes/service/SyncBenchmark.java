@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+
+import com.example.android.cloudnotes.jvm.FakeDriveServer;
+import com.example.android.cloudnotes.jvm.JvmContext;
+import com.example.android.cloudnotes.jvm.NoteGenerator;
+import com.example.android.cloudnotes.jvm.Notes;
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.example.android.cloudnotes.ui.HomeActivity;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times complete syncs against a {@link FakeDriveServer}: uploading every
+ * note to an empty drive, downloading every file of a drive to an empty
+ * device, and a sync with nothing to do after that. A sync is a single long
+ * run rather than something JMH could repeat, so this is a plain program.
+ * <p>
+ * Reports notes per second, the requests the server saw, the body bytes
+ * either way and the peak heap during the sync. The server runs in the same
+ * JVM, so the heap includes what it holds.
+ * <p>
+ * System properties: "sync.sizes", the comma separated numbers of notes,
+ * 100,10000,100000 by default; "sync.latency", the milliseconds every
+ * request is delayed by, 0 by default; "sync.words", the average number of
+ * words in a note, 60 by default.
+ */
+public class SyncBenchmark {
+
+    private static final String ACCOUNT = "benchmark@example.com";
+
+    private final long mLatency;
+
+    private final int mBodyWords;
+
+    public SyncBenchmark(long latency, int bodyWords) {
+        mLatency = latency;
+        mBodyWords = bodyWords;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // the connections the transfer threads keep open between requests
+        System.setProperty("http.maxConnections", "16");
+        final SyncBenchmark benchmark = new SyncBenchmark(Long.getLong("sync.latency", 0),
+                Integer.getInteger("sync.words", 60));
+        System.out.println(String.format("%-10s %8s %10s %10s %12s %12s %10s", "scenario",
+                "notes", "notes/s", "requests", "sent", "received", "peak heap"));
+        for (String size : System.getProperty("sync.sizes", "100,10000,100000").split(",")) {
+            final int count = Integer.parseInt(size.trim());
+            benchmark.upload(count);
+            benchmark.download(count);
+        }
+    }
+
+    /**
+     * Syncs notes made on the device to an empty drive, then syncs again.
+     */
+    public void upload(int count) throws IOException {
+        final FakeDriveServer server = FakeDriveServer.start();
+        final JvmContext context = newContext(server);
+        try {
+            Notes.insert(context, new NoteGenerator(count, mBodyWords), count);
+            final DriveSyncer syncer = new DriveSyncer(context, FakeDriveServer.newClient());
+            sync("upload", count, server, syncer);
+            sync("unchanged", count, server, syncer);
+            if (server.getFileCount() != count) {
+                throw new IllegalStateException(server.getFileCount() + " of " + count
+                        + " notes in drive");
+            }
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * Syncs the files of a drive to a device without notes.
+     */
+    public void download(int count) throws IOException {
+        final FakeDriveServer server = FakeDriveServer.start();
+        final JvmContext context = newContext(server);
+        try {
+            final NoteGenerator notes = new NoteGenerator(count, mBodyWords);
+            for (int i = 0; i < count; i++) {
+                server.addFile(notes.nextTitle(), notes.nextBody());
+            }
+            sync("download", count, server, new DriveSyncer(context,
+                    FakeDriveServer.newClient()));
+            final int synced = countNotes(context);
+            if (synced != count) {
+                throw new IllegalStateException(synced + " of " + count + " files synced");
+            }
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    private JvmContext newContext(FakeDriveServer server) throws IOException {
+        server.setLatency(mLatency, TimeUnit.MILLISECONDS);
+        final JvmContext context = Notes.newContext();
+        context.getSharedPreferences(HomeActivity.KEY_PREFS, Context.MODE_PRIVATE).edit()
+                .putString(SyncSettings.KEY_DRIVE_ROOT_URL, server.getRootUrl()).commit();
+        return context;
+    }
+
+    private static void sync(String scenario, int count, FakeDriveServer server,
+            DriveSyncer syncer) {
+        System.gc();
+        server.resetCounts();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        final SyncResult result = new SyncResult();
+        final long start = System.nanoTime();
+        syncer.performSync(ACCOUNT, result, new SyncStats());
+        final long elapsed = System.nanoTime() - start;
+        if (result.hasError()) {
+            throw new IllegalStateException(scenario + " failed: " + result);
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println(String.format("%-10s %8d %10.0f %10d %12d %12d %9dM", scenario,
+                count, count * 1e9 / elapsed, server.getRequestCount(),
+                server.getBytesReceived(), server.getBytesSent(), peakHeap >> 20));
+    }
+
+    private static int countNotes(JvmContext context) {
+        final Cursor c = context.getContentResolver().query(
+                NotesProvider.CONTENT_URI, new String[] {
+                    NotesProvider.KEY_ID
+                }, null, null, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.ui;
+
+/**
+ * Stand-in for the app's activity, holding the names the sync shares with it.
+ * Keep in step with the constants of the real one.
+ */
+public class HomeActivity {
+
+    public static final String EXTRA_NOTE_ID = "noteId";
+
+    public static final String KEY_SYNCING = "SYNCING";
+
+    public static final String KEY_PREFS = "PREFS";
+
+    public static final String LB_REQUEST_ACCOUNT = "REQUEST_ACCOUNT";
+    public static final String LB_AUTH_APP = "AUTH_APP";
+    public static final String EXTRA_AUTH_APP_INTENT = "AUTH_APP_INTENT";
+    public static final String LB_SYNC_COMPLETE = "SYNC_COMPLETE";
+
+    private HomeActivity() {
+    }
+}
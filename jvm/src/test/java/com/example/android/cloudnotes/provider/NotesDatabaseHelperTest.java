@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.cloudnotes.jvm.JvmContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upgrades a populated version 1 database one version at a time, checking
+ * that every step keeps the notes, their drive ids and their dirty flags.
+ */
+public class NotesDatabaseHelperTest {
+
+    private static final String DB_NAME = "migration.db";
+
+    // the schema as version 1 of the app created it, kept as it was rather
+    // than taken from the provider
+    private static final String V1_CREATE = "CREATE TABLE notes(_id INTEGER PRIMARY KEY "
+            + "AUTOINCREMENT, title TEXT NOT NULL, body TEXT, last_modified INTEGER NOT NULL "
+            + "DEFAULT 0,drive_id TEXT);";
+
+    // _id, title, body, last_modified, drive_id; notes 3 and 5 share a drive
+    // file, which version 2 no longer allows
+    private static final Object[][] V1_NOTES = {
+            {
+                    1L, "groceries", "milk\neggs", 1000L, "drive-a"
+            }, {
+                    2L, "meeting", null, 2000L, null
+            }, {
+                    3L, "recipe", "crème brûlée", 3000L, "drive-b"
+            }, {
+                    4L, "travel", "", 4000L, "drive-c"
+            }, {
+                    5L, "recipe copy", "crème brûlée", 5000L, "drive-b"
+            }, {
+                    6L, "draft", "not synced yet", 6000L, null
+            }
+    };
+
+    private JvmContext mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = JvmContext.createTemporary();
+        final SQLiteDatabase db = mContext.openOrCreateDatabase(DB_NAME, 0, null);
+        db.execSQL(V1_CREATE);
+        for (Object[] note : V1_NOTES) {
+            db.execSQL("INSERT INTO notes(_id, title, body, last_modified, drive_id) "
+                    + "VALUES (?, ?, ?, ?, ?)", note);
+        }
+        db.setVersion(1);
+        db.close();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.close();
+    }
+
+    /**
+     * @return the database, upgraded to the given version
+     */
+    private SQLiteDatabase upgradeTo(int version) {
+        final SQLiteDatabase db = new NotesProvider.NotesDatabaseHelper(mContext, DB_NAME,
+                version).getWritableDatabase();
+        assertEquals(version, db.getVersion());
+        return db;
+    }
+
+    private static List<String> column(SQLiteDatabase db, String column) {
+        final Cursor c = db.rawQuery("SELECT " + column + " FROM notes ORDER BY _id", null);
+        try {
+            final List<String> values = new ArrayList<String>();
+            while (c.moveToNext()) {
+                values.add(c.getString(0));
+            }
+            return values;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static List<String> v1Column(int index) {
+        final List<String> values = new ArrayList<String>();
+        for (Object[] note : V1_NOTES) {
+            values.add(note[index] != null ? note[index].toString() : null);
+        }
+        return values;
+    }
+
+    private static void assertNotesKept(SQLiteDatabase db) {
+        assertEquals(v1Column(0), column(db, "_id"));
+        assertEquals(v1Column(1), column(db, "title"));
+        assertEquals(v1Column(2), column(db, "body"));
+        assertEquals(v1Column(3), column(db, "last_modified"));
+    }
+
+    private static List<String> list(String... values) {
+        final List<String> list = new ArrayList<String>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static long count(SQLiteDatabase db, String sql) {
+        final Cursor c = db.rawQuery(sql, null);
+        try {
+            c.moveToFirst();
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void upgradesOneVersionAtATime() {
+        SQLiteDatabase db = upgradeTo(2);
+        assertNotesKept(db);
+        // the newer of the notes sharing a drive file is unlinked, to be
+        // uploaded again
+        final List<String> driveIds = list("drive-a", null, "drive-b", "drive-c", null, null);
+        assertEquals(driveIds, column(db, "drive_id"));
+
+        db = upgradeTo(3);
+        assertNotesKept(db);
+        assertEquals(driveIds, column(db, "drive_id"));
+        assertEquals(list("0", "0", "0", "0", "0", "0"), column(db, "dirty"));
+        // edits made while at version 3
+        db.execSQL("UPDATE notes SET dirty=1 WHERE _id IN (2, 4, 6)");
+
+        db = upgradeTo(4);
+        assertNotesKept(db);
+        assertEquals(driveIds, column(db, "drive_id"));
+        final List<String> dirty = list("0", "1", "0", "1", "0", "1");
+        assertEquals(dirty, column(db, "dirty"));
+
+        db = upgradeTo(5);
+        assertNotesKept(db);
+        assertEquals(driveIds, column(db, "drive_id"));
+        assertEquals(dirty, column(db, "dirty"));
+        // notes dirty before bodies were tracked apart may have body edits
+        assertEquals(dirty, column(db, "body_dirty"));
+
+        for (int version = 6; version <= NotesProvider.DATABASE_VERSION; version++) {
+            db = upgradeTo(version);
+            assertNotesKept(db);
+            assertEquals(driveIds, column(db, "drive_id"));
+            assertEquals(dirty, column(db, "dirty"));
+            assertEquals(dirty, column(db, "body_dirty"));
+        }
+
+        // the search index covers the notes that were there before it
+        assertEquals(2, count(db, "SELECT COUNT(*) FROM notes_fts WHERE notes_fts MATCH 'crème'"));
+        assertEquals(V1_NOTES.length, count(db, "SELECT COUNT(*) FROM notes_fts"));
+    }
+
+    @Test
+    public void upgradesInOneGo() {
+        final SQLiteDatabase db = upgradeTo(NotesProvider.DATABASE_VERSION);
+        assertNotesKept(db);
+        assertEquals(list("drive-a", null, "drive-b", "drive-c", null, null),
+                column(db, "drive_id"));
+        assertEquals(list("0", "0", "0", "0", "0", "0"), column(db, "dirty"));
+    }
+
+    @Test
+    public void upgradedSchemaMatchesNewDatabase() {
+        final List<String> upgraded = schema(upgradeTo(NotesProvider.DATABASE_VERSION));
+        final List<String> created = schema(new NotesProvider.NotesDatabaseHelper(mContext,
+                "new.db", NotesProvider.DATABASE_VERSION).getWritableDatabase());
+        assertEquals(created, upgraded);
+    }
+
+    @Test
+    public void driveIdsStayUnique() {
+        final SQLiteDatabase db = upgradeTo(2);
+        try {
+            db.execSQL("UPDATE notes SET drive_id='drive-a' WHERE _id=2");
+            fail("duplicate drive id accepted");
+        } catch (SQLiteConstraintException e) {
+            // the unique index refuses it
+        }
+        // any number of notes can still wait for their first upload
+        db.execSQL("UPDATE notes SET drive_id=NULL WHERE _id IN (1, 3)");
+    }
+
+    private static List<String> schema(SQLiteDatabase db) {
+        final Cursor c = db.rawQuery("SELECT type, name, sql FROM sqlite_master "
+                + "WHERE name NOT LIKE 'sqlite_%' ORDER BY type, name", null);
+        try {
+            final List<String> schema = new ArrayList<String>();
+            while (c.moveToNext()) {
+                schema.add(c.getString(0) + " " + c.getString(1) + ": " + c.getString(2));
+            }
+            return schema;
+        } finally {
+            c.close();
+        }
+    }
+}
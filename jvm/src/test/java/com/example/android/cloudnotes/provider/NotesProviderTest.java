@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.cloudnotes.jvm.JvmContext;
+import com.example.android.cloudnotes.jvm.Notes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the provider on the JVM stand-ins, checking the writes the
+ * benchmarks time do what the app expects of them.
+ */
+public class NotesProviderTest {
+
+    private JvmContext mContext;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = Notes.newContext();
+        mResolver = mContext.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.close();
+    }
+
+    private Uri insert(Uri uri, String title, String body, String driveId) {
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_TITLE, title);
+        values.put(NotesProvider.KEY_BODY, body);
+        if (driveId != null) {
+            values.put(NotesProvider.KEY_DRIVE_ID, driveId);
+        }
+        return mResolver.insert(uri, values);
+    }
+
+    private ContentValues read(Uri note) {
+        final Cursor c = mResolver.query(note, null, null, null, null);
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            final ContentValues values = new ContentValues();
+            for (int i = 0; i < c.getColumnCount(); i++) {
+                values.put(c.getColumnName(i), c.getString(i));
+            }
+            return values;
+        } finally {
+            c.close();
+        }
+    }
+
+    private int count(Uri uri) {
+        final Cursor c = mResolver.query(uri, null, null, null, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void localInsertIsDirty() {
+        final Uri note = insert(NotesProvider.CONTENT_URI, "title", "body", null);
+        final ContentValues values = read(note);
+        assertEquals("title", values.getAsString(NotesProvider.KEY_TITLE));
+        assertEquals(1, (int) values.getAsInteger(NotesProvider.KEY_DIRTY));
+        assertEquals(1, (int) values.getAsInteger(NotesProvider.KEY_BODY_DIRTY));
+        assertTrue(values.getAsLong(NotesProvider.KEY_LAST_MODIFIED) > 0);
+    }
+
+    @Test
+    public void syncInsertIsClean() {
+        final Uri note = insert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), "title",
+                "body", "drive1");
+        final ContentValues values = read(note);
+        assertEquals("drive1", values.getAsString(NotesProvider.KEY_DRIVE_ID));
+        assertEquals(0, (int) values.getAsInteger(NotesProvider.KEY_DIRTY));
+    }
+
+    @Test
+    public void localEditOnlyFlagsChangedBody() {
+        final Uri note = insert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), "title",
+                "body", "drive1");
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_TITLE, "renamed");
+        values.put(NotesProvider.KEY_BODY, "body");
+        assertEquals(1, mResolver.update(note, values, null, null));
+
+        final ContentValues edited = read(note);
+        assertEquals("renamed", edited.getAsString(NotesProvider.KEY_TITLE));
+        assertEquals(1, (int) edited.getAsInteger(NotesProvider.KEY_DIRTY));
+        assertEquals(0, (int) edited.getAsInteger(NotesProvider.KEY_BODY_DIRTY));
+        // the rename is logged for the sync
+        assertEquals(1, count(NotesProvider.OUTBOX_URI));
+    }
+
+    @Test
+    public void deleteLeavesTombstoneForNotesInDrive() {
+        final Uri inDrive = insert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), "a",
+                "body", "drive1");
+        final Uri local = insert(NotesProvider.CONTENT_URI, "b", "body", null);
+        assertEquals(1, mResolver.delete(inDrive, null, null));
+        assertEquals(1, mResolver.delete(local, null, null));
+
+        assertEquals(0, count(NotesProvider.CONTENT_URI));
+        final Cursor c = mResolver.query(NotesProvider.OUTBOX_URI, new String[] {
+                NotesProvider.KEY_DRIVE_ID, NotesProvider.KEY_OP
+        }, null, null, null);
+        try {
+            assertEquals(1, c.getCount());
+            c.moveToFirst();
+            assertEquals("drive1", c.getString(0));
+            assertEquals(NotesProvider.OP_DELETE, c.getString(1));
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void failedBatchIsRolledBack() throws Exception {
+        final Uri note = insert(NotesProvider.CONTENT_URI, "title", "body", null);
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation
+                .newInsert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI))
+                .withValue(NotesProvider.KEY_TITLE, "new").build());
+        operations.add(ContentProviderOperation
+                .newUpdate(NotesProvider.asSyncAdapter(note))
+                .withValue(NotesProvider.KEY_DIRTY, 0)
+                .withSelection(NotesProvider.KEY_LAST_MODIFIED + "=?", new String[] {
+                    "0"
+                }).withExpectedCount(1).build());
+        try {
+            mResolver.applyBatch(NotesProvider.CONTENT_AUTHORITY, operations);
+            fail();
+        } catch (OperationApplicationException e) {
+            // the edit is newer than the version the update expected
+        }
+        assertEquals(1, count(NotesProvider.CONTENT_URI));
+        assertEquals(1, (int) read(note).getAsInteger(NotesProvider.KEY_DIRTY));
+    }
+
+    @Test
+    public void bulkInsertNotifiesOnce() {
+        final long before = mResolver.getNotifyCount();
+        final ContentValues[] rows = new ContentValues[250];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(NotesProvider.KEY_TITLE, "note " + i);
+        }
+        assertEquals(rows.length, mResolver.bulkInsert(NotesProvider.CONTENT_URI, rows));
+        assertEquals(rows.length, count(NotesProvider.CONTENT_URI));
+        assertEquals(before + 1, mResolver.getNotifyCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkInsertRejectsNoteUris() {
+        final Uri note = insert(NotesProvider.CONTENT_URI, "title", "body", null);
+        mResolver.bulkInsert(note, new ContentValues[] {
+            new ContentValues()
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateRejectsNullValues() {
+        final Uri note = insert(NotesProvider.CONTENT_URI, "title", "body", null);
+        mResolver.update(note, null, null, null);
+    }
+
+    @Test
+    public void noteIdsAreMatched() {
+        final Uri note = insert(NotesProvider.CONTENT_URI, "title", "body", null);
+        assertNotNull(read(note));
+        assertEquals(NotesProvider.CONTENT_TYPE, mResolver.getType(NotesProvider.CONTENT_URI));
+        assertFalse(NotesProvider.CONTENT_TYPE.equals(mResolver.getType(note)));
+        assertEquals(null, read(ContentUris.withAppendedId(NotesProvider.CONTENT_URI,
+                ContentUris.parseId(note) + 1)));
+    }
+
+    @Test
+    public void searchMatchesEveryWordAndPrefixOfTheLast() {
+        insert(NotesProvider.CONTENT_URI, "groceries", "buy crème fraîche", null);
+        insert(NotesProvider.CONTENT_URI, "budget", "travel budget for friday", null);
+        insert(NotesProvider.CONTENT_URI, "travel", "pack for the trip", null);
+
+        assertEquals(2, count(NotesProvider.searchUri("travel")));
+        assertEquals(1, count(NotesProvider.searchUri("travel bud")));
+        assertEquals(2, count(NotesProvider.searchUri("tr")));
+        assertEquals(1, count(NotesProvider.searchUri("crème")));
+        // operators are searched for as words, not run
+        assertEquals(0, count(NotesProvider.searchUri("travel OR \"groceries")));
+        assertEquals(0, count(NotesProvider.searchUri("  ")));
+    }
+
+    @Test
+    public void searchRanksByWordsInTheTitle() {
+        final String[][] notes = {
+                {
+                        "budget", "travel budget"
+                }, {
+                        "travel budget", "for the trip"
+                }, {
+                        "plans", "travel budget for friday"
+                }, {
+                        "travel", "budget"
+                }
+        };
+        for (int i = 0; i < notes.length; i++) {
+            final ContentValues values = new ContentValues();
+            values.put(NotesProvider.KEY_TITLE, notes[i][0]);
+            values.put(NotesProvider.KEY_BODY, notes[i][1]);
+            // the last note is the oldest
+            values.put(NotesProvider.KEY_LAST_MODIFIED, (i + 1) % notes.length);
+            mResolver.insert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), values);
+        }
+
+        final Cursor c = mResolver.query(NotesProvider.searchUri("travel bud"), null, null,
+                null, null);
+        try {
+            for (String title : new String[] {
+                    "travel budget", "budget", "travel", "plans"
+            }) {
+                assertTrue(c.moveToNext());
+                assertEquals(title, c.getString(c.getColumnIndex(NotesProvider.KEY_TITLE)));
+            }
+            assertFalse(c.moveToNext());
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void searchLimitFallsBackToDefault() {
+        for (int i = 0; i < NotesProvider.SEARCH_DEFAULT_LIMIT * 2; i++) {
+            insert(NotesProvider.CONTENT_URI, "note " + i, "shopping list", null);
+        }
+        final Uri search = NotesProvider.searchUri("shop");
+        assertEquals(3, count(search.buildUpon()
+                .appendQueryParameter(NotesProvider.SEARCH_LIMIT, "3").build()));
+        assertEquals(NotesProvider.SEARCH_DEFAULT_LIMIT, count(search));
+        for (String bad : new String[] {
+                "many", "", "-1", "0"
+        }) {
+            assertEquals(bad, NotesProvider.SEARCH_DEFAULT_LIMIT, count(search.buildUpon()
+                    .appendQueryParameter(NotesProvider.SEARCH_LIMIT, bad).build()));
+        }
+    }
+}
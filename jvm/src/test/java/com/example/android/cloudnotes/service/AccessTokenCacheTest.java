@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.cloudnotes.jvm.MemoryPreferences;
+import com.google.android.gms.auth.GoogleAuthException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Gets tokens through an {@link AccessTokenCache} from a counting token
+ * source.
+ */
+public class AccessTokenCacheTest {
+
+    private static final String ACCOUNT = "user@example.com";
+
+    private MemoryPreferences mPrefs;
+
+    private CountingTokenSource mSource;
+
+    private AccessTokenCache mTokens;
+
+    @Before
+    public void setUp() {
+        mPrefs = new MemoryPreferences();
+        mSource = new CountingTokenSource();
+        mTokens = new AccessTokenCache(mPrefs, mSource);
+    }
+
+    /**
+     * Stores a token as an earlier run of the app would have left it.
+     */
+    private void storeToken(String value, long expiry) {
+        mPrefs.edit().putString(AccessTokenCache.PREF_TOKEN + ACCOUNT, value)
+                .putLong(AccessTokenCache.PREF_EXPIRY + ACCOUNT, expiry).commit();
+    }
+
+    @Test
+    public void reusesCachedToken() throws IOException, GoogleAuthException {
+        assertEquals("token1", mTokens.getToken(ACCOUNT));
+        assertEquals("token1", mTokens.getToken(ACCOUNT));
+        assertEquals(1, mSource.getFetchCount());
+
+        // and so does a new cache over the same prefs
+        final AccessTokenCache restarted = new AccessTokenCache(mPrefs, mSource);
+        assertEquals("token1", restarted.getToken(ACCOUNT));
+        assertEquals(1, mSource.getFetchCount());
+    }
+
+    @Test
+    public void fetchesExpiredToken() throws IOException, GoogleAuthException {
+        storeToken("stale", System.currentTimeMillis() - 1);
+
+        assertEquals("token1", mTokens.getToken(ACCOUNT));
+        assertEquals(1, mSource.getFetchCount());
+        final long expiry = mPrefs.getLong(AccessTokenCache.PREF_EXPIRY + ACCOUNT, 0);
+        assertTrue(expiry > System.currentTimeMillis() + AccessTokenCache.TOKEN_LIFETIME
+                - 60 * 1000);
+    }
+
+    @Test
+    public void refreshesInBackgroundBeforeExpiry() throws Exception {
+        storeToken("old", System.currentTimeMillis() + AccessTokenCache.REFRESH_WINDOW / 2);
+
+        // still good, so it is used while the next one is fetched
+        assertEquals("old", mTokens.getToken(ACCOUNT));
+        assertTrue(mSource.awaitFetch());
+        final long deadline = System.currentTimeMillis() + 5000;
+        String token;
+        while (!"token1".equals(token = mTokens.getToken(ACCOUNT))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("token1", token);
+        assertEquals(1, mSource.getFetchCount());
+        assertEquals(Arrays.asList("old"), mSource.getInvalidated());
+    }
+
+    @Test
+    public void leavesTokenOutsideRefreshWindow() throws Exception {
+        storeToken("current", System.currentTimeMillis() + AccessTokenCache.REFRESH_WINDOW
+                + 60 * 1000);
+
+        assertEquals("current", mTokens.getToken(ACCOUNT));
+        Thread.sleep(100);
+        assertEquals(0, mSource.getFetchCount());
+    }
+
+    @Test
+    public void invalidateDropsOnlyThatToken() throws IOException, GoogleAuthException {
+        assertEquals("token1", mTokens.getToken(ACCOUNT));
+
+        // a token already replaced stays replaced
+        mTokens.invalidate(ACCOUNT, "other");
+        assertEquals("token1", mTokens.getToken(ACCOUNT));
+
+        mTokens.invalidate(ACCOUNT, "token1");
+        assertEquals("token2", mTokens.getToken(ACCOUNT));
+        assertEquals(Arrays.asList("other", "token1"), mSource.getInvalidated());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out a new token on each fetch, "token1", "token2" and so on, and
+ * records the fetches and the tokens invalidated.
+ */
+class CountingTokenSource implements AccessTokenCache.TokenSource {
+
+    private int mFetches;
+
+    private final List<String> mInvalidated = new ArrayList<String>();
+
+    private final Semaphore mFetched = new Semaphore(0);
+
+    @Override
+    public synchronized String fetchToken(String accountName) {
+        mFetches++;
+        mFetched.release();
+        return "token" + mFetches;
+    }
+
+    @Override
+    public synchronized void invalidateToken(String token) {
+        mInvalidated.add(token);
+    }
+
+    synchronized int getFetchCount() {
+        return mFetches;
+    }
+
+    synchronized List<String> getInvalidated() {
+        return new ArrayList<String>(mInvalidated);
+    }
+
+    /**
+     * Waits for a fetch made on another thread.
+     *
+     * @return whether there was one within a few seconds
+     */
+    boolean awaitFetch() throws InterruptedException {
+        return mFetched.tryAcquire(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import static com.example.android.cloudnotes.service.ScriptedTransport.json;
+import static com.example.android.cloudnotes.service.ScriptedTransport.status;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.android.cloudnotes.jvm.MemoryPreferences;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.services.drive.Drive;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends drive requests through a {@link DriveClient} over a scripted
+ * transport.
+ */
+public class DriveClientTest {
+
+    private static final String ACCOUNT = "user@example.com";
+
+    private static final int GZIP_THRESHOLD = 1024;
+
+    private static final long MINUTE = 60 * 1000;
+
+    private ScriptedTransport mTransport;
+
+    private CountingTokenSource mSource;
+
+    private AccessTokenCache mTokens;
+
+    private SyncStats mStats;
+
+    private Drive mDrive;
+
+    @Before
+    public void setUp() {
+        mTransport = new ScriptedTransport();
+        mSource = new CountingTokenSource();
+        mTokens = new AccessTokenCache(new MemoryPreferences(), mSource);
+        mStats = new SyncStats();
+        mDrive = newDrive(0);
+    }
+
+    private Drive newDrive(int maxRetries) {
+        return new DriveClient(mTransport, new JacksonFactory(), mTokens).newDrive(ACCOUNT, null,
+                GZIP_THRESHOLD, mStats, new RetryPolicy(new CircuitBreaker(10, MINUTE, MINUTE,
+                        MINUTE), maxRetries, 1, 1));
+    }
+
+    private void get() throws IOException {
+        mDrive.getRequestFactory()
+                .buildGetRequest(new GenericUrl(mDrive.getBaseUrl() + "files/a")).execute()
+                .ignore();
+    }
+
+    private static byte[] newBody(int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("the quick brown fox jumps over the lazy dog\n");
+        }
+        sb.setLength(length);
+        return sb.toString().getBytes();
+    }
+
+    private void put(HttpContent content, String contentRange) throws IOException {
+        mTransport.respond(json("{}"));
+        final HttpRequest request = mDrive.getRequestFactory().buildPutRequest(
+                new GenericUrl(mDrive.getBaseUrl() + "files/a"), content);
+        request.getHeaders().setContentRange(contentRange);
+        request.execute().ignore();
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException {
+        final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) != -1;) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void gzipsLargeBodies() throws IOException {
+        final byte[] body = newBody(10 * GZIP_THRESHOLD);
+        put(new ByteArrayContent("text/plain", body), null);
+
+        assertEquals("gzip", mTransport.mContentEncodings.get(0));
+        final byte[] sent = mTransport.mBodies.get(0);
+        assertEquals(new String(body), new String(gunzip(sent)));
+        final ByteCounter bytes = mStats.getBytes();
+        assertEquals(body.length, bytes.getContentSent());
+        assertEquals(sent.length, bytes.getWireSent());
+        assertTrue(bytes.getWireSent() < bytes.getContentSent());
+    }
+
+    @Test
+    public void countsSmallBodies() throws IOException {
+        final byte[] body = newBody(GZIP_THRESHOLD - 1);
+        put(new ByteArrayContent("text/plain", body), null);
+
+        assertNull(mTransport.mContentEncodings.get(0));
+        assertEquals(body.length, mTransport.mBodies.get(0).length);
+        assertEquals(body.length, mStats.getBytes().getContentSent());
+        assertEquals(body.length, mStats.getBytes().getWireSent());
+    }
+
+    @Test
+    public void sendsUploadChunksAsTheyAre() throws IOException {
+        final byte[] body = newBody(10 * GZIP_THRESHOLD);
+        put(new ByteArrayContent("text/plain", body), "bytes 0-" + (body.length - 1) + "/"
+                + body.length);
+
+        assertNull(mTransport.mContentEncodings.get(0));
+        assertEquals(body.length, mTransport.mBodies.get(0).length);
+        assertEquals(body.length, mStats.getBytes().getContentSent());
+        assertEquals(body.length, mStats.getBytes().getWireSent());
+    }
+
+    @Test
+    public void reusesToken() throws IOException {
+        mTransport.respond(json("{}"), json("{}"));
+        get();
+        get();
+
+        assertEquals(Arrays.asList("Bearer token1", "Bearer token1"), mTransport.mAuthorizations);
+        assertEquals(1, mSource.getFetchCount());
+    }
+
+    @Test
+    public void retriesUnauthorizedWithNewToken() throws IOException {
+        mTransport.respond(status(HttpStatusCodes.STATUS_CODE_UNAUTHORIZED), json("{}"));
+        get();
+
+        assertEquals(Arrays.asList("Bearer token1", "Bearer token2"), mTransport.mAuthorizations);
+        assertEquals(Arrays.asList("token1"), mSource.getInvalidated());
+    }
+
+    @Test
+    public void retriesUnauthorizedOnce() throws IOException {
+        // retries left for other failures are not spent on it
+        mDrive = newDrive(3);
+        mTransport.respond(status(HttpStatusCodes.STATUS_CODE_UNAUTHORIZED),
+                status(HttpStatusCodes.STATUS_CODE_UNAUTHORIZED), json("{}"));
+        try {
+            get();
+            fail();
+        } catch (HttpResponseException e) {
+            assertEquals(HttpStatusCodes.STATUS_CODE_UNAUTHORIZED, e.getStatusCode());
+        }
+
+        assertEquals(2, mTransport.getRequestCount());
+        assertEquals(2, mSource.getFetchCount());
+        assertEquals(Arrays.asList("token1"), mSource.getInvalidated());
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.cloudnotes.jvm.FakeDriveServer;
+import com.example.android.cloudnotes.jvm.JvmContext;
+import com.example.android.cloudnotes.jvm.NoteGenerator;
+import com.example.android.cloudnotes.jvm.Notes;
+import com.example.android.cloudnotes.provider.NotesProvider;
+import com.example.android.cloudnotes.ui.HomeActivity;
+import com.google.api.services.drive.model.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs complete syncs against a {@link FakeDriveServer}.
+ */
+public class DriveSyncerTest {
+
+    private static final String ACCOUNT = "user@example.com";
+
+    private FakeDriveServer mServer;
+
+    private JvmContext mContext;
+
+    private ContentResolver mResolver;
+
+    private DriveSyncer mSyncer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = FakeDriveServer.start();
+        mContext = Notes.newContext();
+        mResolver = mContext.getContentResolver();
+        mContext.getSharedPreferences(HomeActivity.KEY_PREFS, Context.MODE_PRIVATE).edit()
+                .putString(SyncSettings.KEY_DRIVE_ROOT_URL, mServer.getRootUrl())
+                // small enough for the larger notes to go up resumably
+                .putInt(SyncSettings.KEY_UPLOAD_CHUNK_SIZE, ResumableUpload.CHUNK_GRANULARITY)
+                .commit();
+        mSyncer = new DriveSyncer(mContext, FakeDriveServer.newClient());
+    }
+
+    @After
+    public void tearDown() {
+        mContext.close();
+        mServer.stop();
+    }
+
+    private SyncResult sync() {
+        return sync(new SyncStats());
+    }
+
+    private SyncResult sync(SyncStats stats) {
+        final SyncResult result = new SyncResult();
+        assertTrue(mSyncer.performSync(ACCOUNT, result, stats));
+        assertFalse(result.toString(), result.hasError());
+        return result;
+    }
+
+    /**
+     * @return the bodies of the local notes, by drive id
+     */
+    private Map<String, String> readNotes() {
+        final Map<String, String> notes = new HashMap<String, String>();
+        final Cursor c = mResolver.query(NotesProvider.CONTENT_URI, new String[] {
+                NotesProvider.KEY_DRIVE_ID, NotesProvider.KEY_BODY
+        }, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                assertNotNull("note not in drive", c.getString(0));
+                notes.put(c.getString(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return notes;
+    }
+
+    private static String repeat(String s, int count) {
+        final StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void uploadsNewNotes() throws UnsupportedEncodingException {
+        Notes.insert(mContext, new NoteGenerator(1, 40), 30);
+        // one over a chunk, and one with nothing to upload but its title
+        final ContentValues large = new ContentValues();
+        large.put(NotesProvider.KEY_TITLE, "large");
+        large.put(NotesProvider.KEY_BODY, repeat("crème brûlée ", 30000));
+        mResolver.insert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), large);
+        final ContentValues empty = new ContentValues();
+        empty.put(NotesProvider.KEY_TITLE, "empty");
+        empty.put(NotesProvider.KEY_BODY, "");
+        mResolver.insert(NotesProvider.asSyncAdapter(NotesProvider.CONTENT_URI), empty);
+
+        // low enough for the notes sent whole to go gzipped
+        mContext.getSharedPreferences(HomeActivity.KEY_PREFS, Context.MODE_PRIVATE).edit()
+                .putInt(SyncSettings.KEY_GZIP_THRESHOLD, 256).commit();
+        final SyncStats stats = new SyncStats();
+        sync(stats);
+        // one request per note with a body, a batch for the empty one, a
+        // session and two chunks for the large one, and the listing
+        assertEquals(30 + 1 + 3 + 2, mServer.getRequestCount());
+        // every body is counted as it went over the wire, the chunks of the
+        // large note uncompressed; only the envelope of the batch is not,
+        // the library takes over the interceptor of the batch request
+        final ByteCounter bytes = stats.getBytes();
+        final long envelope = mServer.getBytesReceived() - bytes.getWireSent();
+        assertTrue(bytes.toString(), envelope >= 0 && envelope < 1024);
+        final byte[] largeBody = large.getAsString(NotesProvider.KEY_BODY).getBytes("UTF-8");
+        assertTrue(bytes.toString(), bytes.getWireSent() > largeBody.length);
+        assertTrue(bytes.toString(), bytes.getContentSent() > bytes.getWireSent());
+
+        final Map<String, String> notes = readNotes();
+        assertEquals(32, notes.size());
+        assertEquals(32, mServer.getFileCount());
+        for (Map.Entry<String, String> note : notes.entrySet()) {
+            assertEquals(note.getValue(), mServer.getContent(note.getKey()));
+        }
+
+        // nothing left to do but ask for changes
+        mServer.resetCounts();
+        sync();
+        assertEquals(notes, readNotes());
+        assertEquals(32, mServer.getFileCount());
+        assertTrue(String.valueOf(mServer.getRequestCount()), mServer.getRequestCount() <= 3);
+    }
+
+    @Test
+    public void downloadsFiles() {
+        final NoteGenerator generator = new NoteGenerator(2, 40);
+        for (int i = 0; i < 25; i++) {
+            mServer.addFile(generator.nextTitle(), generator.nextBody());
+        }
+        final String trashed = mServer.addFile("trashed", "gone");
+        mServer.trash(trashed);
+
+        sync();
+
+        final Map<String, String> notes = readNotes();
+        assertEquals(25, notes.size());
+        assertNull(notes.get(trashed));
+        for (File file : mServer.getFiles()) {
+            if (!file.getId().equals(trashed)) {
+                assertEquals(mServer.getContent(file.getId()), notes.get(file.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void appliesRemoteChanges() {
+        final String edited = mServer.addFile("edited", "before");
+        final String trashed = mServer.addFile("trashed", "soon gone");
+        mServer.addFile("kept", "as it is");
+        sync();
+        assertEquals(3, readNotes().size());
+
+        mServer.setContent(edited, "after");
+        mServer.trash(trashed);
+        final String added = mServer.addFile("added", "new");
+        mServer.resetCounts();
+        sync();
+
+        final Map<String, String> notes = readNotes();
+        assertEquals(3, notes.size());
+        assertEquals("after", notes.get(edited));
+        assertFalse(notes.containsKey(trashed));
+        assertEquals("new", notes.get(added));
+        assertEquals("as it is", notes.get(findByTitle("kept")));
+    }
+
+    @Test
+    public void sendsLocalEdits() {
+        Notes.insert(mContext, new NoteGenerator(3, 20), 5);
+        sync();
+        final Map<String, String> notes = readNotes();
+        final String id = notes.keySet().iterator().next();
+
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_BODY, "edited here");
+        assertEquals(1, mResolver.update(NotesProvider.CONTENT_URI, values,
+                NotesProvider.KEY_DRIVE_ID + "=?", new String[] {
+                    id
+                }));
+        sync();
+
+        assertEquals("edited here", mServer.getContent(id));
+        assertEquals(5, mServer.getFileCount());
+    }
+
+    @Test
+    public void leavesConflictedRenamesAlone() {
+        Notes.insert(mContext, new NoteGenerator(4, 20), 3);
+        sync();
+        final String id = readNotes().keySet().iterator().next();
+
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_TITLE, "renamed here");
+        assertEquals(1, mResolver.update(NotesProvider.CONTENT_URI, values,
+                NotesProvider.KEY_DRIVE_ID + "=?", new String[] {
+                    id
+                }));
+        mServer.setContent(id, "edited there");
+        final String title = mServer.getFile(id).getTitle();
+        final SyncResult result = new SyncResult();
+        mSyncer.performSync(ACCOUNT, result, new SyncStats());
+
+        // the rename fails once and the note is not uploaded after it
+        assertEquals(1, result.stats.numConflictDetectedExceptions);
+        assertEquals("edited there", mServer.getContent(id));
+        assertEquals(title, mServer.getFile(id).getTitle());
+        assertEquals(1, queryLong(NotesProvider.CONFLICTS_URI, "count(*)"));
+        // nor in the next sync, until the conflict is resolved
+        sync();
+        assertEquals("edited there", mServer.getContent(id));
+        assertEquals(title, mServer.getFile(id).getTitle());
+    }
+
+    @Test
+    public void keepsLocalEditsOfNotesDeletedRemotely() {
+        final String trashed = mServer.addFile("trashed", "before");
+        sync();
+
+        final ContentValues values = new ContentValues();
+        values.put(NotesProvider.KEY_BODY, "edited here");
+        assertEquals(1, mResolver.update(NotesProvider.CONTENT_URI, values,
+                NotesProvider.KEY_DRIVE_ID + "=?", new String[] {
+                    trashed
+                }));
+        mServer.trash(trashed);
+        // the upload of the edit is refused, the file has changed
+        mSyncer.performSync(ACCOUNT, new SyncResult(), new SyncStats());
+        final Cursor c = mResolver.query(NotesProvider.CONTENT_URI, new String[] {
+                NotesProvider.KEY_DRIVE_ID, NotesProvider.KEY_BODY
+        }, null, null, null);
+        try {
+            assertEquals(1, c.getCount());
+            c.moveToFirst();
+            assertNull(c.getString(0));
+            assertEquals("edited here", c.getString(1));
+        } finally {
+            c.close();
+        }
+
+        // and goes up as a new file next time
+        sync();
+        final Map<String, String> notes = readNotes();
+        assertEquals(1, notes.size());
+        final String id = notes.keySet().iterator().next();
+        assertFalse(trashed.equals(id));
+        assertEquals("edited here", mServer.getContent(id));
+        assertEquals("before", mServer.getContent(trashed));
+    }
+
+    @Test
+    public void settlesJournalEntries() {
+        Notes.insert(mContext, new NoteGenerator(4, 20), 1);
+        final long noteId = queryLong(NotesProvider.CONTENT_URI, NotesProvider.KEY_ID);
+        // uploads an earlier sync started and never finished: one of a note
+        // still here, one of a note deleted since
+        for (long id : new long[] {
+                noteId, noteId + 1
+        }) {
+            final ContentValues entry = new ContentValues();
+            entry.put(NotesProvider.KEY_NOTE_ID, id);
+            entry.put(NotesProvider.KEY_CLIENT_ID, "client" + id);
+            entry.put(NotesProvider.KEY_LAST_MODIFIED, 0L);
+            mResolver.insert(NotesProvider.asSyncAdapter(NotesProvider.SYNC_JOURNAL_URI), entry);
+        }
+
+        sync();
+
+        assertEquals(1, readNotes().size());
+        assertEquals(1, mServer.getFileCount());
+        assertEquals(-1, queryLong(NotesProvider.SYNC_JOURNAL_URI, NotesProvider.KEY_NOTE_ID));
+    }
+
+    /**
+     * @return the column of the first row, or -1 if there is none
+     */
+    private long queryLong(Uri uri, String column) {
+        final Cursor c = mResolver.query(uri, new String[] {
+                column
+        }, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    private String findByTitle(String title) {
+        for (File file : mServer.getFiles()) {
+            if (file.getTitle().equals(title)) {
+                return file.getId();
+            }
+        }
+        return null;
+    }
+}
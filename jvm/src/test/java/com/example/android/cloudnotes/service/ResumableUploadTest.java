@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.example.android.cloudnotes.jvm.MemoryPreferences;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs uploads against a scripted transport that answers each request with
+ * the next of a list of responses, and checks the chunks that are sent.
+ */
+public class ResumableUploadTest {
+
+    private static final int CHUNK = ResumableUpload.CHUNK_GRANULARITY;
+
+    private static final String SESSION = "https://www.googleapis.com/upload/session/1";
+
+    private static final long NOTE_ID = 7;
+
+    private static final long LAST_MODIFIED = 1000;
+
+    private ScriptedTransport mTransport;
+
+    private MemoryPreferences mPrefs;
+
+    private byte[] mContent;
+
+    @Before
+    public void setUp() {
+        mTransport = new ScriptedTransport();
+        mPrefs = new MemoryPreferences();
+        // three full chunks and a short one
+        mContent = new byte[3 * CHUNK + 100];
+        for (int i = 0; i < mContent.length; i++) {
+            mContent[i] = (byte) ('a' + i % 26);
+        }
+    }
+
+    private ResumableUpload newUpload() {
+        final Drive drive = new Drive.Builder(mTransport, new JacksonFactory(), null).build();
+        return new ResumableUpload(drive, mPrefs, CHUNK);
+    }
+
+    private File upload(long lastModified) throws IOException {
+        return newUpload().upload(NOTE_ID, lastModified, null, null, new File(), "id",
+                "text/plain", mContent);
+    }
+
+    private static MockLowLevelHttpResponse started() {
+        final MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+        response.addHeader("Location", SESSION);
+        return response;
+    }
+
+    /**
+     * @param lastByte the last byte drive acknowledges, or -1 for none
+     */
+    private static MockLowLevelHttpResponse incomplete(long lastByte) {
+        final MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+        response.setStatusCode(308);
+        if (lastByte >= 0) {
+            response.addHeader("Range", "bytes=0-" + lastByte);
+        }
+        return response;
+    }
+
+    private static MockLowLevelHttpResponse done(String id) {
+        return ScriptedTransport.json("{\"id\":\"" + id + "\"}");
+    }
+
+    private String range(long first, long last) {
+        return "bytes " + first + "-" + last + "/" + mContent.length;
+    }
+
+    @Test
+    public void uploadsInChunks() throws IOException {
+        mTransport.respond(started(), incomplete(CHUNK - 1), incomplete(2 * CHUNK - 1),
+                incomplete(3 * CHUNK - 1), done("drive-1"));
+
+        assertEquals("drive-1", upload(LAST_MODIFIED).getId());
+        assertEquals(list("POST", "PUT", "PUT", "PUT", "PUT"), mTransport.mMethods);
+        assertEquals(list(null, range(0, CHUNK - 1), range(CHUNK, 2 * CHUNK - 1),
+                range(2 * CHUNK, 3 * CHUNK - 1), range(3 * CHUNK, mContent.length - 1)),
+                mTransport.mContentRanges);
+        assertSessionCleared();
+    }
+
+    @Test
+    public void resumesFromAcknowledgedOffset() throws IOException {
+        // the second chunk is cut off
+        mTransport.respond(started(), incomplete(CHUNK - 1), null);
+        try {
+            upload(LAST_MODIFIED);
+            fail("upload finished without a connection");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(SESSION, mPrefs.getString("uploadSession_" + NOTE_ID, null));
+        assertEquals(CHUNK, mPrefs.getLong("uploadOffset_" + NOTE_ID, -1));
+
+        // the next session asks drive where it stands, then carries on from there
+        mTransport.clear();
+        mTransport.respond(incomplete(CHUNK - 1), incomplete(2 * CHUNK - 1),
+                incomplete(3 * CHUNK - 1), done("drive-1"));
+        assertEquals("drive-1", upload(LAST_MODIFIED).getId());
+        assertEquals(list("PUT", "PUT", "PUT", "PUT"), mTransport.mMethods);
+        assertEquals(list(SESSION, SESSION, SESSION, SESSION), mTransport.mUrls);
+        assertEquals(list("bytes */" + mContent.length, range(CHUNK, 2 * CHUNK - 1),
+                range(2 * CHUNK, 3 * CHUNK - 1), range(3 * CHUNK, mContent.length - 1)),
+                mTransport.mContentRanges);
+        assertSessionCleared();
+    }
+
+    @Test
+    public void resendsWhatDriveDidNotAcknowledge() throws IOException {
+        // drive only kept part of the second chunk
+        final int kept = CHUNK + 1000;
+        mTransport.respond(started(), incomplete(CHUNK - 1), incomplete(kept - 1),
+                incomplete(kept + CHUNK - 1), done("drive-1"));
+
+        assertEquals("drive-1", upload(LAST_MODIFIED).getId());
+        assertEquals(list(null, range(0, CHUNK - 1), range(CHUNK, 2 * CHUNK - 1),
+                range(kept, kept + CHUNK - 1), range(kept + CHUNK, mContent.length - 1)),
+                mTransport.mContentRanges);
+    }
+
+    @Test
+    public void startsOverForAnotherVersion() throws IOException {
+        mTransport.respond(started(), incomplete(CHUNK - 1), null);
+        try {
+            upload(LAST_MODIFIED);
+            fail("upload finished without a connection");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the note was edited since, its saved session is for the old content
+        mTransport.clear();
+        mTransport.respond(started(), incomplete(CHUNK - 1), incomplete(2 * CHUNK - 1),
+                incomplete(3 * CHUNK - 1), done("drive-1"));
+        assertEquals("drive-1", upload(LAST_MODIFIED + 1).getId());
+        assertEquals("POST", mTransport.mMethods.get(0));
+        assertEquals(range(0, CHUNK - 1), mTransport.mContentRanges.get(1));
+    }
+
+    @Test
+    public void startsOverWhenSessionExpired() throws IOException {
+        mTransport.respond(started(), incomplete(CHUNK - 1), null);
+        try {
+            upload(LAST_MODIFIED);
+            fail("upload finished without a connection");
+        } catch (IOException e) {
+            // expected
+        }
+
+        mTransport.clear();
+        mTransport.respond(ScriptedTransport.status(404), started(), incomplete(CHUNK - 1),
+                incomplete(2 * CHUNK - 1), incomplete(3 * CHUNK - 1), done("drive-1"));
+        assertEquals("drive-1", upload(LAST_MODIFIED).getId());
+        assertEquals(list("PUT", "POST", "PUT", "PUT", "PUT", "PUT"), mTransport.mMethods);
+        assertEquals(range(0, CHUNK - 1), mTransport.mContentRanges.get(2));
+    }
+
+    private void assertSessionCleared() {
+        assertNull(mPrefs.getString("uploadSession_" + NOTE_ID, null));
+        assertEquals(-1, mPrefs.getLong("uploadOffset_" + NOTE_ID, -1));
+    }
+
+    private static List<String> list(String... values) {
+        final List<String> list = new ArrayList<String>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
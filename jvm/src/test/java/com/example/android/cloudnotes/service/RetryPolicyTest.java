@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import static com.example.android.cloudnotes.service.ScriptedTransport.json;
+import static com.example.android.cloudnotes.service.ScriptedTransport.status;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.googleapis.GoogleHeaders;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs drive requests under a retry policy against a scripted transport.
+ */
+public class RetryPolicyTest {
+
+    private static final int MAX_RETRIES = 3;
+
+    private static final int BREAKER_THRESHOLD = 5;
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final String BOUNDARY = "batch_boundary";
+
+    private ScriptedTransport mTransport;
+
+    private CircuitBreaker mBreaker;
+
+    private RetryPolicy mRetries;
+
+    private Drive mDrive;
+
+    @Before
+    public void setUp() {
+        mTransport = new ScriptedTransport();
+        mBreaker = new CircuitBreaker(BREAKER_THRESHOLD, MINUTE, MINUTE, MINUTE);
+        // short waits, except what drive asks for
+        mRetries = new RetryPolicy(mBreaker, MAX_RETRIES, 1, 2000);
+        mDrive = new Drive.Builder(mTransport, new JacksonFactory(),
+                new HttpRequestInitializer() {
+                    @Override
+                    public void initialize(HttpRequest request) {
+                        mRetries.install(request);
+                    }
+                }).build();
+    }
+
+    private String get(String id) throws IOException {
+        return mDrive.files().get(id).execute().getId();
+    }
+
+    private static MockLowLevelHttpResponse file(String id) {
+        return json("{\"id\":\"" + id + "\"}");
+    }
+
+    private static MockLowLevelHttpResponse retryAfter(int status, int seconds) {
+        final MockLowLevelHttpResponse response = status(status);
+        response.addHeader("Retry-After", String.valueOf(seconds));
+        return response;
+    }
+
+    private static void assertStatus(int status, IOException e) {
+        assertTrue(e.toString(), e instanceof HttpResponseException);
+        assertEquals(status, ((HttpResponseException) e).getStatusCode());
+    }
+
+    @Test
+    public void retriesServerErrors() throws IOException {
+        mTransport.respond(status(503), status(500), file("a"));
+        assertEquals("a", get("a"));
+        assertEquals(3, mTransport.getRequestCount());
+        assertEquals(2, mRetries.getRetryCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() {
+        for (int i = 0; i <= MAX_RETRIES; i++) {
+            mTransport.respond(status(502));
+        }
+        try {
+            get("a");
+            fail("request succeeded without a response");
+        } catch (IOException e) {
+            assertStatus(502, e);
+        }
+        assertEquals(MAX_RETRIES + 1, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        mTransport.respond(status(404));
+        try {
+            get("a");
+            fail("missing file found");
+        } catch (IOException e) {
+            assertStatus(404, e);
+        }
+        assertEquals(1, mTransport.getRequestCount());
+        assertEquals(0, mRetries.getRetryCount());
+    }
+
+    @Test
+    public void waitsAsLongAsRetryAfter() throws IOException {
+        mTransport.respond(retryAfter(503, 1), file("a"));
+        final long start = System.currentTimeMillis();
+        assertEquals("a", get("a"));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertEquals(2, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void holdsRequestsForLongRetryAfter() {
+        // longer than the policy waits for
+        mTransport.respond(retryAfter(429, 60));
+        try {
+            get("a");
+            fail("request succeeded without a response");
+        } catch (IOException e) {
+            assertStatus(429, e);
+        }
+        try {
+            get("b");
+            fail("request made while drive asked to wait");
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            assertTrue(e.getRetryTime() > System.currentTimeMillis() + 50 * 1000);
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+        assertEquals(1, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void retriesLostConnectionOfIdempotentRequests() throws IOException {
+        mTransport.respond(null, file("a"));
+        assertEquals("a", get("a"));
+        assertEquals(2, mTransport.getRequestCount());
+
+        mTransport.clear();
+        mTransport.respond(null, file("a"));
+        assertEquals("a", mDrive.files().update("a", new File()).execute().getId());
+        assertEquals(2, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryLostConnectionOfPosts() {
+        // drive may have created the file
+        mTransport.respond(null, file("a"));
+        try {
+            mDrive.files().insert(new File()).execute();
+            fail("request succeeded without a response");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(list("POST"), mTransport.mMethods);
+    }
+
+    @Test
+    public void backOffStaysWithinJitterBounds() {
+        final RetryPolicy retries = new RetryPolicy(mBreaker, 10, 100, 1000);
+        for (int retry = 1; retry <= 10; retry++) {
+            final long delay = Math.min(100L << (retry - 1), 1000);
+            boolean shorter = false;
+            boolean longer = false;
+            for (int i = 0; i < 1000; i++) {
+                final long backOff = retries.getBackOff(retry);
+                assertTrue(retry + ": " + backOff, backOff >= delay / 2);
+                assertTrue(retry + ": " + backOff, backOff < delay / 2 + delay);
+                shorter |= backOff < delay;
+                longer |= backOff > delay;
+            }
+            // spread, so parallel transfers don't retry in step
+            assertTrue(shorter && longer);
+        }
+    }
+
+    @Test
+    public void breakerOpensAfterRepeatedFailures() {
+        for (int i = 0; i < BREAKER_THRESHOLD; i++) {
+            mTransport.respond(status(500));
+        }
+        try {
+            get("a");
+            fail("request succeeded without a response");
+        } catch (IOException e) {
+            assertStatus(500, e);
+        }
+        // the last failure opens the breaker before the retry is made
+        try {
+            get("b");
+            fail("request succeeded without a response");
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            // expected
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+        assertEquals(BREAKER_THRESHOLD, mTransport.getRequestCount());
+        assertEquals(1, mBreaker.getTripCount());
+
+        try {
+            get("c");
+            fail("request made while the breaker is open");
+        } catch (IOException e) {
+            assertTrue(e instanceof CircuitBreaker.CircuitOpenException);
+        }
+        assertEquals(BREAKER_THRESHOLD, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void retriesBatchAsWhole() throws IOException {
+        final List<String> ids = new ArrayList<String>();
+        final BatchRequest batch = mRetries.newBatch(mDrive);
+        mDrive.files().get("a").queue(batch, new Callback(ids));
+        mDrive.files().get("b").queue(batch, new Callback(ids));
+        mTransport.respond(status(503), batchResponse(
+                "HTTP/1.1 200 OK", "{\"id\":\"a\"}",
+                "HTTP/1.1 200 OK", "{\"id\":\"b\"}"));
+
+        final long start = System.currentTimeMillis();
+        mRetries.execute(batch);
+        assertEquals(list("a", "b"), ids);
+        assertEquals(list("POST", "POST"), mTransport.mMethods);
+        // one wait for the batch, none for each part
+        assertEquals(1, mRetries.getRetryCount());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void breakerStopsBatch() {
+        mBreaker.holdUntil(System.currentTimeMillis() + MINUTE);
+        final BatchRequest batch = mRetries.newBatch(mDrive);
+        try {
+            mDrive.files().get("a").queue(batch, new Callback(new ArrayList<String>()));
+            mRetries.execute(batch);
+            fail("batch sent while the breaker is open");
+        } catch (IOException e) {
+            assertTrue(e instanceof CircuitBreaker.CircuitOpenException);
+        }
+        assertEquals(0, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void doesNotResendUnansweredBatch() throws IOException {
+        final BatchRequest batch = mRetries.newBatch(mDrive);
+        mDrive.files().get("a").queue(batch, new Callback(new ArrayList<String>()));
+        mTransport.respond(null, null);
+        try {
+            mRetries.execute(batch);
+            fail("batch succeeded without a response");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, mTransport.getRequestCount());
+    }
+
+    /**
+     * @param parts pairs of status line and JSON body
+     */
+    private static MockLowLevelHttpResponse batchResponse(String... parts) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length; i += 2) {
+            sb.append("--").append(BOUNDARY).append("\r\n");
+            sb.append("Content-Type: application/http\r\n\r\n");
+            sb.append(parts[i]).append("\r\n");
+            sb.append("Content-Type: application/json\r\n\r\n");
+            sb.append(parts[i + 1]).append("\r\n");
+        }
+        sb.append("--").append(BOUNDARY).append("--\r\n");
+        final MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+        // the batch reads the boundary from the headers
+        response.addHeader("Content-Type", "multipart/mixed; boundary=" + BOUNDARY);
+        response.setContent(sb.toString());
+        return response;
+    }
+
+    private static List<String> list(String... values) {
+        final List<String> list = new ArrayList<String>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static class Callback extends JsonBatchCallback<File> {
+
+        private final List<String> mIds;
+
+        Callback(List<String> ids) {
+            mIds = ids;
+        }
+
+        @Override
+        public void onSuccess(File file, GoogleHeaders headers) {
+            mIds.add(file.getId());
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError error, GoogleHeaders headers) {
+            fail(error.getMessage());
+        }
+    }
+}
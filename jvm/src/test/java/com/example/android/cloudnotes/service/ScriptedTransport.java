@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.example.android.cloudnotes.service;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers each request with the next scripted response, and records the
+ * method, url, authorization, content range, content encoding and body of the
+ * requests. A null response stands for a lost connection.
+ */
+class ScriptedTransport extends MockHttpTransport {
+
+    final LinkedList<MockLowLevelHttpResponse> mResponses =
+            new LinkedList<MockLowLevelHttpResponse>();
+
+    final List<String> mMethods = new ArrayList<String>();
+
+    final List<String> mUrls = new ArrayList<String>();
+
+    final List<String> mAuthorizations = new ArrayList<String>();
+
+    final List<String> mContentRanges = new ArrayList<String>();
+
+    final List<String> mContentEncodings = new ArrayList<String>();
+
+    // as sent, null for requests without a body
+    final List<byte[]> mBodies = new ArrayList<byte[]>();
+
+    void respond(MockLowLevelHttpResponse... responses) {
+        for (MockLowLevelHttpResponse response : responses) {
+            mResponses.add(response);
+        }
+    }
+
+    void clear() {
+        mResponses.clear();
+        mMethods.clear();
+        mUrls.clear();
+        mAuthorizations.clear();
+        mContentRanges.clear();
+        mContentEncodings.clear();
+        mBodies.clear();
+    }
+
+    /**
+     * @return the number of requests made
+     */
+    int getRequestCount() {
+        return mMethods.size();
+    }
+
+    static MockLowLevelHttpResponse status(int status) {
+        final MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+        response.setStatusCode(status);
+        return response;
+    }
+
+    static MockLowLevelHttpResponse json(String json) {
+        final MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+        response.setContentType("application/json");
+        response.setContent(json);
+        return response;
+    }
+
+    private LowLevelHttpRequest request(final String method, final String url) {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                mMethods.add(method);
+                mUrls.add(url);
+                mAuthorizations.add(getHeader(getHeaders(), "Authorization"));
+                mContentRanges.add(getHeader(getHeaders(), "Content-Range"));
+                final HttpContent content = getContent();
+                mContentEncodings.add(content != null ? content.getEncoding() : null);
+                if (content != null) {
+                    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    content.writeTo(body);
+                    mBodies.add(body.toByteArray());
+                } else {
+                    mBodies.add(null);
+                }
+                if (mResponses.isEmpty()) {
+                    throw new AssertionError("unexpected " + method + " " + url);
+                }
+                final MockLowLevelHttpResponse response = mResponses.removeFirst();
+                if (response == null) {
+                    throw new IOException("Connection reset");
+                }
+                return response;
+            }
+        };
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildDeleteRequest(String url) {
+        return request("DELETE", url);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildGetRequest(String url) {
+        return request("GET", url);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildPatchRequest(String url) {
+        return request("PATCH", url);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildPostRequest(String url) {
+        return request("POST", url);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildPutRequest(String url) {
+        return request("PUT", url);
+    }
+}